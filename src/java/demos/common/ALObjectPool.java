@@ -0,0 +1,196 @@
+package demos.common;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALException;
+
+/**
+ * Keeps sources and buffers that are no longer needed so the next user can
+ * take them over instead of generating new ones.  Creating and deleting AL
+ * objects is expensive on some implementations and fragments native memory
+ * when short-lived users, such as streams, come and go; with a pool, only
+ * the first users of a given size generate anything.
+ * <p>
+ * Returned sources are reset to OpenAL's defaults: stopped, rewound, with no
+ * buffer attached or queued and every attribute restored.  Returned buffers
+ * keep their data until the next user replaces it with
+ * <code>alBufferData</code>.  {@link #release} deletes everything pooled in
+ * one call per kind.
+ */
+public class ALObjectPool {
+
+    private final AL al;
+
+    private int sourceCount = 0;
+    private int[] sources = new int[8];
+    private int bufferCount = 0;
+    private int[] buffers = new int[16];
+
+    private long generated = 0;
+    private long reused = 0;
+
+    private static final float[] ZERO = { 0.0f, 0.0f, 0.0f };
+
+    /**
+     * @param al AL instance.
+     */
+    public ALObjectPool(AL al) {
+
+        this.al = al;
+    }
+
+    /**
+     * Generates objects up front so later users find them pooled.
+     */
+    public synchronized void prewarm(int sourceCount, int bufferCount) {
+
+        int[] ids = new int[Math.max(sourceCount, bufferCount)];
+        if (sourceCount > 0) {
+            gen(true, sourceCount, ids, 0);
+            for (int i = 0; i < sourceCount; i++) {
+                pushSource(ids[i]);
+            }
+        }
+        if (bufferCount > 0) {
+            gen(false, bufferCount, ids, 0);
+            for (int i = 0; i < bufferCount; i++) {
+                pushBuffer(ids[i]);
+            }
+        }
+    }
+
+    /**
+     * @return A source in its default state.
+     * @throws ALException if a new source is needed and can't be generated.
+     */
+    public synchronized int acquireSource() {
+
+        if (sourceCount > 0) {
+            reused++;
+            return sources[--sourceCount];
+        }
+        int[] id = new int[1];
+        gen(true, 1, id, 0);
+        return id[0];
+    }
+
+    /**
+     * Takes <code>n</code> buffers, generating in one call whatever the pool
+     * can't provide.
+     *
+     * @throws ALException if buffers can't be generated.
+     */
+    public synchronized void acquireBuffers(int n, int[] ids, int offset) {
+
+        int pooled = Math.min(n, bufferCount);
+        for (int i = 0; i < pooled; i++) {
+            ids[offset + i] = buffers[--bufferCount];
+        }
+        reused += pooled;
+        if (pooled < n) {
+            gen(false, n - pooled, ids, offset + pooled);
+        }
+    }
+
+    /**
+     * Resets a source to the defaults and returns it to the pool.
+     */
+    public synchronized void releaseSource(int source) {
+
+        al.alSourceStop(source);
+        al.alSourceRewind(source);
+        // Detaches the buffer and clears the queue
+        al.alSourcei(source, AL.AL_BUFFER, 0);
+
+        al.alSourcei(source, AL.AL_LOOPING, AL.AL_FALSE);
+        al.alSourcei(source, AL.AL_SOURCE_RELATIVE, AL.AL_FALSE);
+        al.alSourcef(source, AL.AL_PITCH, 1.0f);
+        al.alSourcef(source, AL.AL_GAIN, 1.0f);
+        al.alSourcef(source, AL.AL_MIN_GAIN, 0.0f);
+        al.alSourcef(source, AL.AL_MAX_GAIN, 1.0f);
+        al.alSourcef(source, AL.AL_ROLLOFF_FACTOR, 1.0f);
+        al.alSourcef(source, AL.AL_REFERENCE_DISTANCE, 1.0f);
+        al.alSourcef(source, AL.AL_MAX_DISTANCE, Float.MAX_VALUE);
+        al.alSourcef(source, AL.AL_CONE_INNER_ANGLE, 360.0f);
+        al.alSourcef(source, AL.AL_CONE_OUTER_ANGLE, 360.0f);
+        al.alSourcef(source, AL.AL_CONE_OUTER_GAIN, 0.0f);
+        al.alSourcefv(source, AL.AL_POSITION, ZERO, 0);
+        al.alSourcefv(source, AL.AL_VELOCITY, ZERO, 0);
+        al.alSourcefv(source, AL.AL_DIRECTION, ZERO, 0);
+
+        pushSource(source);
+    }
+
+    /**
+     * Returns buffers to the pool; they must no longer be attached to or
+     * queued on any source.
+     */
+    public synchronized void releaseBuffers(int n, int[] ids, int offset) {
+
+        for (int i = 0; i < n; i++) {
+            pushBuffer(ids[offset + i]);
+        }
+    }
+
+    /**
+     * @return The number of objects generated by the pool.
+     */
+    public synchronized long getGenerated() {
+
+        return generated;
+    }
+
+    /**
+     * @return The number of objects handed out from the pool.
+     */
+    public synchronized long getReused() {
+
+        return reused;
+    }
+
+    /**
+     * Deletes every pooled object.  Objects that are leased out are not
+     * affected and must be deleted by their users.
+     */
+    public synchronized void release() {
+
+        al.alDeleteSources(sourceCount, sources, 0);
+        al.alDeleteBuffers(bufferCount, buffers, 0);
+        sourceCount = 0;
+        bufferCount = 0;
+    }
+
+    private void gen(boolean source, int n, int[] ids, int offset) {
+
+        al.alGetError();
+        if (source) {
+            al.alGenSources(n, ids, offset);
+        }
+        else {
+            al.alGenBuffers(n, ids, offset);
+        }
+        if (al.alGetError() != AL.AL_NO_ERROR) {
+            throw new ALException("Error generating " + n + (source ? " sources" : " buffers"));
+        }
+        generated += n;
+    }
+
+    private void pushSource(int source) {
+
+        if (sourceCount == sources.length) {
+            int[] s = new int[sourceCount * 2];
+            System.arraycopy(sources, 0, s, 0, sourceCount);
+            sources = s;
+        }
+        sources[sourceCount++] = source;
+    }
+
+    private void pushBuffer(int buffer) {
+
+        if (bufferCount == buffers.length) {
+            int[] b = new int[bufferCount * 2];
+            System.arraycopy(buffers, 0, b, 0, bufferCount);
+            buffers = b;
+        }
+        buffers[bufferCount++] = buffer;
+    }
+}
@@ -0,0 +1,258 @@
+package demos.common;
+
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+
+import net.java.games.joal.AL;
+
+/**
+ * Optional leak tracking for AL objects.  {@link #wrap} puts a proxy in front
+ * of an {@link AL} that records every <code>alGen*</code> and
+ * <code>alDelete*</code> of sources, buffers, filters, effects and auxiliary
+ * effect slots, together with the stack trace of the allocation, and
+ * otherwise passes every call straight through.  {@link #report} lists the
+ * live counts and where each object still alive was created; call it when
+ * the context is torn down to find leaks.
+ * <p>
+ * Tracking costs a stack trace per allocation, so it's off unless the
+ * <code>demos.trackAL</code> system property is set; see
+ * {@link #wrapIfEnabled}.
+ */
+public class ALTracker implements InvocationHandler {
+
+    private static final String[] KINDS = { "Sources", "Buffers", "Filters", "Effects", "AuxiliaryEffectSlots" };
+
+    private final AL al;
+
+    // Live objects per kind, tagged with an index into sites
+    private final HandleRegistry[] live = new HandleRegistry[KINDS.length];
+    private final long[] generated = new long[KINDS.length];
+    private final long[] deleted = new long[KINDS.length];
+    private long unknownDeletes = 0;
+
+    private Throwable[] sites = new Throwable[64];
+    private int[] freeSites = new int[64];
+    private int freeCount = 0;
+    private int siteCount = 0;
+
+    private ALTracker(AL al) {
+
+        this.al = al;
+        for (int i = 0; i < KINDS.length; i++) {
+            // Same order as the HandleRegistry kinds
+            live[i] = new HandleRegistry(i);
+        }
+    }
+
+    /**
+     * @return An AL that tracks objects and forwards every call to
+     *         <code>al</code>.
+     */
+    public static AL wrap(AL al) {
+
+        return (AL)Proxy.newProxyInstance(AL.class.getClassLoader(), new Class<?>[] { AL.class }, new ALTracker(al));
+    }
+
+    /**
+     * @return <code>true</code> if the <code>demos.trackAL</code> system
+     *         property is set.
+     */
+    public static boolean isEnabled() {
+
+        return System.getProperty("demos.trackAL") != null;
+    }
+
+    /**
+     * @return A {@link #wrap wrapped} AL if tracking is enabled, else
+     *         <code>al</code> itself.
+     */
+    public static AL wrapIfEnabled(AL al) {
+
+        return isEnabled() ? wrap(al) : al;
+    }
+
+    /**
+     * @return The tracker behind a wrapped AL, or <code>null</code> if it
+     *         isn't wrapped.
+     */
+    public static ALTracker getTracker(AL al) {
+
+        if (Proxy.isProxyClass(al.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(al);
+            if (handler instanceof ALTracker) {
+                return (ALTracker)handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prints a report for a wrapped AL; does nothing for others.
+     *
+     * @return The number of live objects, 0 if the AL isn't wrapped.
+     */
+    public static int report(AL al, PrintStream out) {
+
+        ALTracker tracker = getTracker(al);
+        return (tracker == null) ? 0 : tracker.report(out);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+        Object result;
+        try {
+            result = method.invoke(al, args);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+
+        String name = method.getName();
+        if (name.startsWith("alGen") || name.startsWith("alDelete")) {
+            int kind = kind(name);
+            if (kind >= 0 && args != null && args.length >= 2) {
+                boolean gen = name.startsWith("alGen");
+                int n = ((Integer)args[0]).intValue();
+                for (int i = 0; i < n; i++) {
+                    int id = id(args, i);
+                    if (gen) {
+                        generated(kind, id);
+                    }
+                    else {
+                        deleted(kind, id);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of live objects of all kinds.
+     */
+    public synchronized int getLiveCount() {
+
+        int count = 0;
+        for (int i = 0; i < live.length; i++) {
+            count += live[i].size();
+        }
+        return count;
+    }
+
+    /**
+     * @param kind One of the {@link HandleRegistry} kinds.
+     * @return The number of live objects of the kind.
+     */
+    public synchronized int getLiveCount(int kind) {
+
+        return live[kind].size();
+    }
+
+    /**
+     * @return The number of deletes of names that weren't live.
+     */
+    public synchronized long getUnknownDeletes() {
+
+        return unknownDeletes;
+    }
+
+    /**
+     * Prints the counts per kind and the allocation site of every object
+     * that's still alive.
+     *
+     * @return The number of live objects.
+     */
+    public synchronized int report(PrintStream out) {
+
+        int total = 0;
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            HandleRegistry registry = live[kind];
+            out.println(KINDS[kind] + ": " + generated[kind] + " generated, " + deleted[kind]
+                        + " deleted, " + registry.size() + " live");
+            int[] handles = new int[registry.size()];
+            int n = registry.handles(handles);
+            for (int i = 0; i < n; i++) {
+                out.println("  leaked " + KINDS[kind].substring(0, KINDS[kind].length() - 1) + " " + registry.name(handles[i])
+                            + ", allocated");
+                StackTraceElement[] trace = sites[registry.getTag(handles[i])].getStackTrace();
+                // Skip the tracker's own frames
+                for (int f = 0; f < trace.length; f++) {
+                    String cls = trace[f].getClassName();
+                    if (!cls.equals(ALTracker.class.getName()) && cls.indexOf("$Proxy") < 0
+                        && !cls.startsWith("java.") && !cls.startsWith("sun.") && !cls.startsWith("jdk.")) {
+                        out.println("    at " + trace[f]);
+                    }
+                }
+            }
+            total += n;
+        }
+        if (unknownDeletes > 0) {
+            out.println(unknownDeletes + " deletes of names that weren't live");
+        }
+        return total;
+    }
+
+    private synchronized void generated(int kind, int id) {
+
+        int site;
+        if (freeCount > 0) {
+            site = freeSites[--freeCount];
+        }
+        else {
+            if (siteCount == sites.length) {
+                Throwable[] s = new Throwable[siteCount * 2];
+                System.arraycopy(sites, 0, s, 0, siteCount);
+                sites = s;
+                int[] f = new int[siteCount * 2];
+                System.arraycopy(freeSites, 0, f, 0, freeSites.length);
+                freeSites = f;
+            }
+            site = siteCount++;
+        }
+        sites[site] = new Throwable();
+        live[kind].register(id, site);
+        generated[kind]++;
+    }
+
+    private synchronized void deleted(int kind, int id) {
+
+        int handle = live[kind].lookup(id);
+        if (handle == HandleRegistry.NONE) {
+            unknownDeletes++;
+            return;
+        }
+        int site = live[kind].getTag(handle);
+        sites[site] = null;
+        freeSites[freeCount++] = site;
+        live[kind].unregister(handle);
+        deleted[kind]++;
+    }
+
+    private static int kind(String method) {
+
+        for (int i = 0; i < KINDS.length; i++) {
+            if (method.endsWith(KINDS[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the i'th name from the arguments of an alGen / alDelete call,
+     * which take either an array and an offset or an IntBuffer.
+     */
+    private static int id(Object[] args, int i) {
+
+        if (args[1] instanceof int[]) {
+            int offset = (args.length > 2) ? ((Integer)args[2]).intValue() : 0;
+            return ((int[])args[1])[offset + i];
+        }
+        IntBuffer buffer = (IntBuffer)args[1];
+        return buffer.get(buffer.position() + i);
+    }
+}
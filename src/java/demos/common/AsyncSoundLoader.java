@@ -0,0 +1,141 @@
+package demos.common;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALException;
+
+/**
+ * Reads and parses sound files on a pool of worker threads.  Only the final
+ * <code>alBufferData</code> call has to happen on the thread owning the
+ * OpenAL context, so callers typically submit every asset up front and then
+ * {@link #upload upload} the results one by one as they complete.
+ */
+public class AsyncSoundLoader {
+
+    private final ExecutorService workers;
+
+    /**
+     * Creates a loader with one worker per available processor.
+     */
+    public AsyncSoundLoader() {
+
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a loader with the given number of worker threads.
+     *
+     * @param threads Number of worker threads.
+     */
+    public AsyncSoundLoader(int threads) {
+
+        final AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SoundLoader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Starts loading a sound from the class path.
+     *
+     * @param resource Class path resource name.
+     * @return Future holding the decoded sound.
+     */
+    public Future<SoundData> load(String resource) {
+
+        return load(resource, 0);
+    }
+
+    /**
+     * Starts loading a sound from the class path, optionally
+     * {@link SoundNormalizer normalizing} it on the worker thread.
+     *
+     * @param resource      Class path resource name.
+     * @param normalizeRate Sample rate to convert to, or 0 for none.
+     * @return Future holding the sound.
+     */
+    public Future<SoundData> load(final String resource, final int normalizeRate) {
+
+        return workers.submit(new Callable<SoundData>() {
+            public SoundData call() {
+                return SoundData.load(resource, normalizeRate);
+            }
+        });
+    }
+
+    /**
+     * Starts loading a sound from the class path and compressing it.
+     *
+     * @param resource      Class path resource name.
+     * @param normalizeRate Sample rate to convert to first, or 0 for none.
+     * @return Future holding the compressed sound.
+     */
+    public Future<CompressedSound> loadCompressed(final String resource, final int normalizeRate) {
+
+        return workers.submit(new Callable<CompressedSound>() {
+            public CompressedSound call() {
+                return CompressedSound.load(resource, normalizeRate);
+            }
+        });
+    }
+
+    /**
+     * Waits for a pending load and uploads the result into a buffer.  Must be
+     * called on the thread that has the OpenAL context current.
+     *
+     * @param al      AL instance.
+     * @param buffer  Buffer ID.
+     * @param pending Result of an earlier {@link #load} call.
+     * @throws ALException If loading failed or the wait was interrupted.
+     */
+    public static void upload(AL al, int buffer, Future<SoundData> pending) {
+
+        SoundData sound = await(pending);
+        sound.upload(al, buffer);
+        sound.recycle();
+    }
+
+    /**
+     * Waits for a pending load, translating failures into {@link ALException}.
+     *
+     * @param pending Result of an earlier {@link #load} or
+     *                {@link #loadCompressed} call.
+     * @return The loaded sound.
+     */
+    public static <T> T await(Future<T> pending) {
+
+        try {
+            return pending.get();
+        }
+        catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            throw new ALException("Interrupted while loading sound", iex);
+        }
+        catch (ExecutionException eex) {
+            Throwable cause = eex.getCause();
+            if (cause instanceof ALException) {
+                throw (ALException)cause;
+            }
+            throw new ALException("Error loading sound", cause);
+        }
+    }
+
+    /**
+     * Stops the worker threads once all submitted loads have completed.
+     */
+    public void shutdown() {
+
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,189 @@
+package demos.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALC;
+import net.java.games.joal.ALCcontext;
+import net.java.games.joal.ALCdevice;
+import net.java.games.joal.ALException;
+import net.java.games.joal.ALFactory;
+
+/**
+ * An independent audio session: a device and context pair together with its
+ * own {@link AudioThread}, sound loader and banks.  Several engines can run
+ * in one process - simulated clients, split-screen listeners - without any
+ * static state of their own; each engine's AL work happens on its own audio
+ * thread, and loading and decoding run on its own workers.
+ * <p>
+ * OpenAL 1.1 has a single current context per process, so the engines'
+ * audio threads take turns making their context current for each tick (see
+ * {@link AudioThread}).  <code>ALC_EXT_thread_local_context</code> would
+ * remove that, but JOAL has no binding for <code>alcSetThreadContext</code>;
+ * {@link #isThreadLocalContextPresent} only reports whether the device
+ * supports it.  Everything that doesn't touch AL - loading, decoding,
+ * scheduling - still scales across cores.
+ * <p>
+ * With <code>demos.trackAL</code> set, the engine's AL is wrapped by an
+ * {@link ALTracker} and {@link #release} reports any objects left alive.
+ */
+public class AudioEngine {
+
+    private final ALC alc;
+    private final AL al;
+    private final ALCdevice device;
+    private final ALCcontext context;
+    private final boolean threadLocalContext;
+    private final AudioThread thread;
+    private final AsyncSoundLoader loader;
+    private final List<SoundBank> banks = new ArrayList<SoundBank>();
+    private boolean released = false;
+
+    /**
+     * Opens a device and creates a context on it.
+     *
+     * @param deviceName Device to open, or <code>null</code> for the default.
+     * @param rate       Ticks per second of the audio thread.
+     * @throws ALException if the device or context can't be created.
+     */
+    public AudioEngine(String deviceName, float rate) {
+
+        alc = ALFactory.getALC();
+        al = ALTracker.wrapIfEnabled(ALFactory.getAL());
+
+        device = alc.alcOpenDevice(deviceName);
+        if (device == null) {
+            throw new ALException("Error opening OpenAL device " + (deviceName == null ? "(default)" : deviceName));
+        }
+        context = alc.alcCreateContext(device, null);
+        if (context == null) {
+            alc.alcCloseDevice(device);
+            throw new ALException("Error creating OpenAL context");
+        }
+        threadLocalContext = alc.alcIsExtensionPresent(device, "ALC_EXT_thread_local_context");
+
+        thread = new AudioThread(rate, 256);
+        thread.bindContext(alc, context);
+        loader = new AsyncSoundLoader();
+    }
+
+    public AL getAL() {
+
+        return al;
+    }
+
+    public ALC getALC() {
+
+        return alc;
+    }
+
+    public ALCdevice getDevice() {
+
+        return device;
+    }
+
+    public ALCcontext getContext() {
+
+        return context;
+    }
+
+    /**
+     * @return The device specifier string.
+     */
+    public String getDeviceSpecifier() {
+
+        return alc.alcGetString(device, ALC.ALC_DEVICE_SPECIFIER);
+    }
+
+    /**
+     * @return <code>true</code> if the device supports
+     *         <code>ALC_EXT_thread_local_context</code>.
+     */
+    public boolean isThreadLocalContextPresent() {
+
+        return threadLocalContext;
+    }
+
+    /**
+     * @return The thread that owns the context.
+     */
+    public AudioThread getThread() {
+
+        return thread;
+    }
+
+    public AsyncSoundLoader getLoader() {
+
+        return loader;
+    }
+
+    /**
+     * Starts the audio thread.
+     */
+    public void start() {
+
+        thread.start();
+    }
+
+    /**
+     * Runs a command on the audio thread with the context current.
+     */
+    public void post(Runnable command) {
+
+        thread.post(command);
+    }
+
+    /**
+     * Adds a task to run on the audio thread every tick.
+     */
+    public void add(AudioScheduler.Task task) {
+
+        thread.add(task);
+    }
+
+    /**
+     * Creates a bank on this engine's loader; it's released with the engine.
+     * Must be called on the audio thread.
+     */
+    public SoundBank createBank(String[] resources) {
+
+        SoundBank bank = new SoundBank(al, loader, resources);
+        synchronized (banks) {
+            banks.add(bank);
+        }
+        return bank;
+    }
+
+    /**
+     * Stops the audio thread once the commands posted so far have run, then
+     * releases the banks, the context and the device.  Must not be called on
+     * the audio thread.
+     */
+    public synchronized void release() {
+
+        if (released) {
+            return;
+        }
+        released = true;
+
+        thread.shutdown();
+        thread.enterContext();
+        try {
+            synchronized (banks) {
+                for (SoundBank bank : banks) {
+                    bank.release();
+                }
+                banks.clear();
+            }
+            ALTracker.report(al, System.err);
+            thread.unbindContext();
+        }
+        finally {
+            thread.exitContext();
+        }
+        alc.alcDestroyContext(context);
+        alc.alcCloseDevice(device);
+        loader.shutdown();
+    }
+}
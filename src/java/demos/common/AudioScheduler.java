@@ -0,0 +1,188 @@
+package demos.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs audio update callbacks at a fixed rate.  Between ticks the thread
+ * parks with <code>LockSupport.parkNanos</code> until the next deadline, so an
+ * idle scene costs next to no CPU.  Deadlines are computed from the start
+ * time rather than from the previous tick, so lateness doesn't accumulate;
+ * if the callbacks fall more than a whole period behind, the missed ticks are
+ * skipped instead of being run back to back.
+ * <p>
+ * The scheduler keeps statistics on how late each tick started (drift) and
+ * how much that varied (jitter), to judge how well the platform's timers
+ * hold the rate.
+ */
+public class AudioScheduler {
+
+    /**
+     * A callback run on every tick.
+     */
+    public interface Task {
+
+        /**
+         * @param tick    Number of the tick, counting from 0; skipped ticks
+         *                are counted too.
+         * @param seconds Length of a tick in seconds.
+         */
+        void tick(long tick, float seconds);
+    }
+
+    private final long period;
+    private final List<Task> tasks = new ArrayList<Task>();
+    private volatile boolean running;
+    private volatile Thread runner;
+
+    private long ticks = 0;
+    private long skipped = 0;
+    private long lateSum = 0;
+    private double lateSquares = 0;
+    private long lateMax = 0;
+
+    /**
+     * @param rate Ticks per second.
+     */
+    public AudioScheduler(float rate) {
+
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        period = (long)(1e9 / rate);
+    }
+
+    /**
+     * Adds a callback; callbacks run in the order they were added.
+     */
+    public synchronized void add(Task task) {
+
+        tasks.add(task);
+    }
+
+    public synchronized void remove(Task task) {
+
+        tasks.remove(task);
+    }
+
+    /**
+     * Runs ticks on the calling thread until {@link #stop} is called, either
+     * by a task or by another thread.
+     */
+    public void run() {
+
+        running = true;
+        runner = Thread.currentThread();
+        float seconds = period / 1e9f;
+        long start = System.nanoTime();
+        long tick = 0;
+        Task[] current = new Task[0];
+
+        while (running) {
+            long deadline = start + tick * period;
+            long now;
+            // parkNanos may return early; park again for the rest
+            while ((now = System.nanoTime()) < deadline && running) {
+                LockSupport.parkNanos(deadline - now);
+            }
+            if (!running) {
+                break;
+            }
+
+            long late = now - deadline;
+            if (late >= period) {
+                long missed = late / period;
+                skipped += missed;
+                tick += missed;
+                late -= missed * period;
+            }
+            ticks++;
+            lateSum += late;
+            lateSquares += (double)late * late;
+            lateMax = Math.max(lateMax, late);
+
+            synchronized (this) {
+                current = tasks.toArray(current);
+            }
+            for (int i = 0; i < current.length && current[i] != null; i++) {
+                current[i].tick(tick, seconds);
+            }
+            tick++;
+        }
+        runner = null;
+    }
+
+    /**
+     * Makes {@link #run} return after the current tick.
+     */
+    public void stop() {
+
+        running = false;
+        Thread thread = runner;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return The number of ticks run.
+     */
+    public long getTicks() {
+
+        return ticks;
+    }
+
+    /**
+     * @return The number of ticks skipped because the scheduler fell more
+     *         than a period behind.
+     */
+    public long getSkipped() {
+
+        return skipped;
+    }
+
+    /**
+     * @return The average time, in microseconds, a tick started after its
+     *         deadline.
+     */
+    public double getDrift() {
+
+        return (ticks == 0) ? 0.0 : lateSum / 1e3 / ticks;
+    }
+
+    /**
+     * @return The standard deviation, in microseconds, of how late ticks
+     *         started.
+     */
+    public double getJitter() {
+
+        if (ticks == 0) {
+            return 0.0;
+        }
+        double mean = (double)lateSum / ticks;
+        return Math.sqrt(Math.max(0.0, lateSquares / ticks - mean * mean)) / 1e3;
+    }
+
+    /**
+     * @return The latest a tick started after its deadline, in microseconds.
+     */
+    public double getMaxLateness() {
+
+        return lateMax / 1e3;
+    }
+
+    /**
+     * @return A one-line summary of the statistics.
+     */
+    public String getStatistics() {
+
+        return ticks + " ticks, " + skipped + " skipped, drift " + round(getDrift())
+               + " us, jitter " + round(getJitter()) + " us, max " + round(getMaxLateness()) + " us";
+    }
+
+    private static double round(double value) {
+
+        return Math.round(value * 10) / 10.0;
+    }
+}
@@ -0,0 +1,251 @@
+package demos.common;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.java.games.joal.ALC;
+import net.java.games.joal.ALCcontext;
+
+/**
+ * A thread that owns the OpenAL context.  Other threads - the Swing event
+ * thread, game logic, the network - never call OpenAL themselves; they
+ * {@link #post} commands into a lock-free {@link CommandRing}, and the audio
+ * thread applies everything that has arrived in one batch at the start of
+ * each tick, followed by any tick tasks that have been added.  All AL work
+ * thus happens on one thread, and a slow AL call never stalls a caller.
+ * <p>
+ * Commands run in the order they were posted by any one thread.  A command
+ * that throws is reported and doesn't stop the thread.
+ * <p>
+ * A thread can be {@link #bindContext bound} to a context of its own, as an
+ * {@link AudioEngine} does.  OpenAL has only one current context per
+ * process, so bound threads take turns: each tick holds a process-wide lock
+ * while it makes its context current and does its AL work.
+ */
+public class AudioThread {
+
+    private final CommandRing ring;
+    private final AudioScheduler scheduler;
+    private final List<AudioScheduler.Task> tasks = new CopyOnWriteArrayList<AudioScheduler.Task>();
+    private Thread thread;
+    private long commands = 0;
+    private long batches = 0;
+
+    // Held by bound threads while their context is current
+    private static final ReentrantLock CONTEXT_LOCK = new ReentrantLock();
+    private static ALCcontext currentContext;
+    private ALC alc;
+    private ALCcontext context;
+
+    /**
+     * @param rate     Ticks per second; commands wait at most one tick.
+     * @param capacity Number of commands that can be waiting.
+     */
+    public AudioThread(float rate, int capacity) {
+
+        ring = new CommandRing(capacity);
+        scheduler = new AudioScheduler(rate);
+        scheduler.add(new AudioScheduler.Task() {
+            public void tick(long tick, float seconds) {
+                enterContext();
+                try {
+                    drain();
+                    for (AudioScheduler.Task task : tasks) {
+                        task.tick(tick, seconds);
+                    }
+                }
+                finally {
+                    exitContext();
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the thread switch to a context of its own for its AL work.  Must
+     * be called before {@link #start}.
+     *
+     * @param alc     ALC instance.
+     * @param context The context.
+     */
+    public void bindContext(ALC alc, ALCcontext context) {
+
+        this.alc = alc;
+        this.context = context;
+    }
+
+    /**
+     * Makes the bound context current, if there is one, and keeps other
+     * bound threads from changing it until {@link #exitContext}.  Can be
+     * nested.
+     */
+    public void enterContext() {
+
+        if (context == null) {
+            return;
+        }
+        CONTEXT_LOCK.lock();
+        if (currentContext != context) {
+            alc.alcMakeContextCurrent(context);
+            currentContext = context;
+        }
+    }
+
+    /**
+     * Undoes one {@link #enterContext}.
+     */
+    public void exitContext() {
+
+        if (context != null) {
+            CONTEXT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Forgets the bound context once it's no longer current, before it is
+     * destroyed.  Must be called between {@link #enterContext} and
+     * {@link #exitContext}.
+     */
+    void unbindContext() {
+
+        if (currentContext == context) {
+            alc.alcMakeContextCurrent(null);
+            currentContext = null;
+        }
+    }
+
+    /**
+     * Adds a task to run on the audio thread every tick, after the commands.
+     */
+    public void add(AudioScheduler.Task task) {
+
+        tasks.add(task);
+    }
+
+    public void remove(AudioScheduler.Task task) {
+
+        tasks.remove(task);
+    }
+
+    /**
+     * Starts the thread.
+     */
+    public synchronized void start() {
+
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            public void run() {
+                scheduler.run();
+                // Whatever was posted before the shutdown still runs
+                enterContext();
+                try {
+                    drain();
+                }
+                finally {
+                    exitContext();
+                }
+            }
+        }, "AudioThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Posts a command from any thread, waiting briefly while the ring is
+     * full.  Commands posted from the audio thread itself run immediately.
+     */
+    public void post(Runnable command) {
+
+        if (isAudioThread()) {
+            command.run();
+            return;
+        }
+        while (!ring.offer(command)) {
+            LockSupport.parkNanos(100000);
+        }
+    }
+
+    /**
+     * Posts a command from any thread.
+     *
+     * @return <code>false</code> if the ring is full.
+     */
+    public boolean offer(Runnable command) {
+
+        return ring.offer(command);
+    }
+
+    /**
+     * @return <code>true</code> if called on the audio thread.
+     */
+    public boolean isAudioThread() {
+
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Stops the thread once the commands posted so far have run, and waits
+     * for it to finish.  Must not be called from the audio thread.
+     */
+    public void shutdown() {
+
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t == null) {
+            return;
+        }
+        post(new Runnable() {
+            public void run() {
+                scheduler.stop();
+            }
+        });
+        try {
+            t.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The average number of commands applied per non-empty batch.
+     */
+    public double getAverageBatch() {
+
+        return (batches == 0) ? 0.0 : (double)commands / batches;
+    }
+
+    /**
+     * @return The scheduler statistics of the audio thread.
+     */
+    public String getStatistics() {
+
+        return scheduler.getStatistics() + ", " + commands + " commands in " + batches + " batches";
+    }
+
+    private void drain() {
+
+        // Bounded, so producers can't keep a tick from ending
+        int count = 0;
+        Runnable command;
+        while (count < ring.capacity() && (command = ring.poll()) != null) {
+            try {
+                command.run();
+            }
+            catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            count++;
+        }
+        if (count > 0) {
+            commands += count;
+            batches++;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package demos.common;
+
+/**
+ * A second-order IIR filter stage, with the lowpass, highpass and shelving
+ * designs from Robert Bristow-Johnson's Audio EQ Cookbook.  Coefficients are
+ * computed when the stage is {@link #prepare prepared} for a sample rate;
+ * frequencies above 45% of the rate are clamped below Nyquist.
+ * <p>
+ * Each channel runs the transposed direct form II over a whole block, with
+ * the two state variables held in locals.
+ */
+public class Biquad implements DSPChain.Stage {
+
+    private static final int LOWPASS = 0;
+    private static final int HIGHPASS = 1;
+    private static final int HIGH_SHELF = 2;
+    private static final int LOW_SHELF = 3;
+
+    // Shelf gains are kept above -80 dB
+    private static final float MIN_GAIN = 0.0001f;
+
+    private final int type;
+    private final float frequency;
+    private final float q;
+    private final float gain;
+
+    private float b0, b1, b2, a1, a2;
+    private float[] z1 = new float[0];
+    private float[] z2 = new float[0];
+
+    private Biquad(int type, float frequency, float q, float gain) {
+
+        this.type = type;
+        this.frequency = frequency;
+        this.q = q;
+        this.gain = gain;
+    }
+
+    /**
+     * @param frequency Cutoff in Hz.
+     * @param q         Resonance; 0.7071 for a Butterworth response.
+     */
+    public static Biquad lowpass(float frequency, float q) {
+
+        return new Biquad(LOWPASS, frequency, q, 1.0f);
+    }
+
+    /**
+     * @param frequency Cutoff in Hz.
+     * @param q         Resonance; 0.7071 for a Butterworth response.
+     */
+    public static Biquad highpass(float frequency, float q) {
+
+        return new Biquad(HIGHPASS, frequency, q, 1.0f);
+    }
+
+    /**
+     * @param frequency Shelf midpoint in Hz.
+     * @param gain      Linear gain above the shelf.
+     */
+    public static Biquad highShelf(float frequency, float gain) {
+
+        return new Biquad(HIGH_SHELF, frequency, 0.0f, Math.max(gain, MIN_GAIN));
+    }
+
+    /**
+     * @param frequency Shelf midpoint in Hz.
+     * @param gain      Linear gain below the shelf.
+     */
+    public static Biquad lowShelf(float frequency, float gain) {
+
+        return new Biquad(LOW_SHELF, frequency, 0.0f, Math.max(gain, MIN_GAIN));
+    }
+
+    public void prepare(int rate, int channels) {
+
+        double w0 = 2.0 * Math.PI * Math.min(frequency, 0.45f * rate) / rate;
+        double cos = Math.cos(w0);
+        double sin = Math.sin(w0);
+        double nb0, nb1, nb2, a0, na1, na2;
+
+        if (type == LOWPASS || type == HIGHPASS) {
+            double alpha = sin / (2.0 * q);
+            if (type == LOWPASS) {
+                nb0 = (1.0 - cos) / 2.0;
+                nb1 = 1.0 - cos;
+            }
+            else {
+                nb0 = (1.0 + cos) / 2.0;
+                nb1 = -(1.0 + cos);
+            }
+            nb2 = nb0;
+            a0 = 1.0 + alpha;
+            na1 = -2.0 * cos;
+            na2 = 1.0 - alpha;
+        }
+        else {
+            // Shelf slope of 1, where 2 * sqrt(A) * alpha is sqrt(2 * A) * sin
+            double a = Math.sqrt(gain);
+            double beta = Math.sqrt(2.0 * a) * sin;
+            if (type == HIGH_SHELF) {
+                nb0 = a * ((a + 1) + (a - 1) * cos + beta);
+                nb1 = -2.0 * a * ((a - 1) + (a + 1) * cos);
+                nb2 = a * ((a + 1) + (a - 1) * cos - beta);
+                a0 = (a + 1) - (a - 1) * cos + beta;
+                na1 = 2.0 * ((a - 1) - (a + 1) * cos);
+                na2 = (a + 1) - (a - 1) * cos - beta;
+            }
+            else {
+                nb0 = a * ((a + 1) - (a - 1) * cos + beta);
+                nb1 = 2.0 * a * ((a - 1) - (a + 1) * cos);
+                nb2 = a * ((a + 1) - (a - 1) * cos - beta);
+                a0 = (a + 1) + (a - 1) * cos + beta;
+                na1 = -2.0 * ((a - 1) + (a + 1) * cos);
+                na2 = (a + 1) + (a - 1) * cos - beta;
+            }
+        }
+
+        b0 = (float)(nb0 / a0);
+        b1 = (float)(nb1 / a0);
+        b2 = (float)(nb2 / a0);
+        a1 = (float)(na1 / a0);
+        a2 = (float)(na2 / a0);
+        z1 = new float[channels];
+        z2 = new float[channels];
+    }
+
+    public void process(float[][] block, int frames) {
+
+        for (int c = 0; c < z1.length; c++) {
+            float[] x = block[c];
+            float s1 = z1[c];
+            float s2 = z2[c];
+            for (int i = 0; i < frames; i++) {
+                float in = x[i];
+                float out = b0 * in + s1;
+                s1 = b1 * in - a1 * out + s2;
+                s2 = b2 * in - a2 * out;
+                x[i] = out;
+            }
+            z1[c] = s1;
+            z2[c] = s2;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package demos.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded multi-producer, single-consumer ring of commands.  Producers claim
+ * a slot with one compare-and-set on the tail and publish the command through
+ * the slot's sequence number, so any number of threads can enqueue without
+ * taking a lock; the one consumer drains slots in order without any atomic
+ * read-modify-write at all.
+ *
+ * @see AudioThread
+ */
+public class CommandRing {
+
+    private final int mask;
+    private final AtomicReferenceArray<Runnable> commands;
+    private final AtomicLongArray sequence;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;                      // consumer only
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two.
+     */
+    public CommandRing(int capacity) {
+
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        mask = size - 1;
+        commands = new AtomicReferenceArray<Runnable>(size);
+        sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequence.set(i, i);
+        }
+    }
+
+    /**
+     * @return The number of slots.
+     */
+    public int capacity() {
+
+        return mask + 1;
+    }
+
+    /**
+     * Adds a command; may be called from any thread.
+     *
+     * @return <code>false</code> if the ring is full.
+     */
+    public boolean offer(Runnable command) {
+
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            long t = tail.get();
+            int index = (int)t & mask;
+            long difference = sequence.get(index) - t;
+            if (difference == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    commands.set(index, command);
+                    sequence.set(index, t + 1);
+                    return true;
+                }
+            }
+            else if (difference < 0) {
+                return false;
+            }
+            // Otherwise another producer took the slot; try the next one
+        }
+    }
+
+    /**
+     * Takes the oldest command; must only be called from the consumer thread.
+     *
+     * @return The command, or <code>null</code> if there is none (or the
+     *         next one is still being published).
+     */
+    public Runnable poll() {
+
+        int index = (int)head & mask;
+        if (sequence.get(index) != head + 1) {
+            return null;
+        }
+        Runnable command = commands.get(index);
+        commands.set(index, null);
+        sequence.set(index, head + mask + 1);
+        head++;
+        return command;
+    }
+}
@@ -0,0 +1,372 @@
+package demos.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALException;
+
+import demos.devmaster.lesson8.OggDecoder;
+
+/**
+ * A sound kept compressed in memory until it's needed in an OpenAL buffer.
+ * Ogg/Vorbis files are kept as they are and decoded with {@link OggDecoder};
+ * PCM sounds are encoded to IMA ADPCM, which is about a quarter the size of
+ * 16 bit PCM.  IMA ADPCM is uploaded as it is when the implementation
+ * supports <code>AL_EXT_IMA4</code>, and decoded in Java otherwise.
+ * <p>
+ * The IMA ADPCM data uses the block layout of WAV files and
+ * <code>AL_EXT_IMA4</code>: per block and channel a four byte header (first
+ * sample, step index) followed by 64 four bit samples, with the channels
+ * interleaved in groups of eight samples.
+ */
+public class CompressedSound {
+
+    public static final int VORBIS = 1;
+    public static final int IMA4   = 2;
+
+    private static final int FRAMES_PER_BLOCK = 65;
+    private static final int BYTES_PER_BLOCK  = 36;    // per channel
+
+    private static final int[] INDEX_TABLE = {
+        -1, -1, -1, -1, 2, 4, 6, 8,
+        -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7,     8,     9,    10,    11,    12,    13,    14,    16,    17,
+           19,    21,    23,    25,    28,    31,    34,    37,    41,    45,
+           50,    55,    60,    66,    73,    80,    88,    97,   107,   118,
+          130,   143,   157,   173,   190,   209,   230,   253,   279,   307,
+          337,   371,   408,   449,   494,   544,   598,   658,   724,   796,
+          876,   963,  1060,  1166,  1282,  1411,  1552,  1707,  1878,  2066,
+         2272,  2499,  2749,  3024,  3327,  3660,  4026,  4428,  4871,  5358,
+         5894,  6484,  7132,  7845,  8630,  9493, 10442, 11487, 12635, 13899,
+        15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    /** {@link #VORBIS} or {@link #IMA4}. */
+    public final int encoding;
+
+    /** Encoded bytes. */
+    private final byte[] encoded;
+
+    // Only known up front for IMA4; bits is the sample size of the original
+    private final int channels;
+    private final int bits;
+    private final int freq;
+    private final int frames;
+
+    private CompressedSound(int encoding, byte[] encoded, int channels, int bits, int freq, int frames) {
+
+        this.encoding = encoding;
+        this.encoded = encoded;
+        this.channels = channels;
+        this.bits = bits;
+        this.freq = freq;
+        this.frames = frames;
+    }
+
+    /**
+     * Loads a sound from the class path in compressed form: Ogg/Vorbis files
+     * are read as they are, anything else is loaded as PCM and encoded.
+     *
+     * @param resource      Class path resource name.
+     * @param normalizeRate Rate to {@link SoundNormalizer normalize} PCM
+     *                      sounds to before encoding, or 0 for none.
+     * @return The compressed sound.
+     * @throws ALException If the resource can't be loaded.
+     */
+    public static CompressedSound load(String resource, int normalizeRate) {
+
+        if (resource.toLowerCase().endsWith(".ogg")) {
+            InputStream in = CompressedSound.class.getClassLoader().getResourceAsStream(resource);
+            if (in == null) {
+                throw new ALException("Sound resource not found: " + resource);
+            }
+            try {
+                return new CompressedSound(VORBIS, readFully(in), 0, 16, 0, 0);
+            }
+            catch (IOException ex) {
+                throw new ALException("Error reading " + resource, ex);
+            }
+        }
+
+        SoundData pcm = SoundData.load(resource, normalizeRate);
+        CompressedSound sound = encodeIMA4(pcm);
+        pcm.recycle();
+        return sound;
+    }
+
+    /**
+     * @return The number of bytes this sound occupies in memory.
+     */
+    public int size() {
+
+        return encoded.length;
+    }
+
+    /**
+     * @return The length of the sound in seconds, or 0 for Ogg/Vorbis, whose
+     *         length is only known once it's decoded.
+     */
+    public float getDuration() {
+
+        return (freq > 0) ? (float)frames / freq : 0f;
+    }
+
+    /**
+     * Checks if the OpenAL implementation can take the encoded data as it is.
+     *
+     * @param al AL instance.
+     * @return <code>true</code> if {@link #uploadNative} can be used.
+     */
+    public boolean isNativeSupported(AL al) {
+
+        return encoding == IMA4 && al.alIsExtensionPresent("AL_EXT_IMA4");
+    }
+
+    /**
+     * Uploads the encoded data without decoding it.  Only valid if
+     * {@link #isNativeSupported} returns <code>true</code>.
+     *
+     * @param al     AL instance.
+     * @param buffer Buffer ID.
+     */
+    public void uploadNative(AL al, int buffer) {
+
+        int format = al.alGetEnumValue(channels == 1 ? "AL_FORMAT_MONO_IMA4" : "AL_FORMAT_STEREO_IMA4");
+        ByteBuffer data = DirectBufferPool.getShared().acquire(encoded.length);
+        data.put(encoded).flip();
+        al.alBufferData(buffer, format, data, encoded.length, freq);
+        DirectBufferPool.getShared().release(data);
+    }
+
+    /**
+     * Decodes the sound to PCM in a pooled direct buffer.  IMA ADPCM encoded
+     * from 8 bit PCM decodes back to 8 bit, everything else to 16 bit.
+     *
+     * @return The decoded sound; {@link SoundData#recycle recycle} it once
+     *         it's been uploaded.
+     * @throws ALException If decoding fails.
+     */
+    public SoundData decode() {
+
+        return (encoding == VORBIS) ? decodeVorbis() : decodeIMA4();
+    }
+
+    private SoundData decodeVorbis() {
+
+        OggDecoder decoder = new OggDecoder(encoded);
+        if (!decoder.initialize()) {
+            throw new ALException("Error decoding Ogg/Vorbis data");
+        }
+        decoder.setSwap(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream(encoded.length * 8);
+        byte[] chunk = new byte[64 * 1024];
+        try {
+            int read;
+            while ((read = decoder.read(chunk)) > 0) {
+                pcm.write(chunk, 0, read);
+            }
+        }
+        catch (IOException ex) {
+            throw new ALException("Error decoding Ogg/Vorbis data", ex);
+        }
+        finally {
+            decoder.close();
+        }
+
+        int size = pcm.size();
+        ByteBuffer data = DirectBufferPool.getShared().acquire(size);
+        data.put(pcm.toByteArray(), 0, size).flip();
+        int format = (decoder.numChannels() == 1) ? AL.AL_FORMAT_MONO16 : AL.AL_FORMAT_STEREO16;
+        return new SoundData(format, data, size, decoder.sampleRate(), data);
+    }
+
+    /**
+     * Encodes 8 or 16 bit mono or stereo PCM to IMA ADPCM.
+     *
+     * @param pcm The sound to encode.
+     * @return The encoded sound.
+     */
+    public static CompressedSound encodeIMA4(SoundData pcm) {
+
+        boolean stereo = pcm.format == AL.AL_FORMAT_STEREO8 || pcm.format == AL.AL_FORMAT_STEREO16;
+        boolean eightBit = pcm.format == AL.AL_FORMAT_MONO8 || pcm.format == AL.AL_FORMAT_STEREO8;
+        int channels = stereo ? 2 : 1;
+        int frames = pcm.size / (channels * (eightBit ? 1 : 2));
+        int blocks = (frames + FRAMES_PER_BLOCK - 1) / FRAMES_PER_BLOCK;
+        int blockAlign = BYTES_PER_BLOCK * channels;
+
+        ByteBuffer in = pcm.data.duplicate().order(ByteOrder.nativeOrder());
+        byte[] out = new byte[blocks * blockAlign];
+        int[] predictor = new int[channels];
+        int[] index = new int[channels];
+
+        for (int block = 0; block < blocks; block++) {
+            int base = block * blockAlign;
+            int first = block * FRAMES_PER_BLOCK;
+
+            for (int c = 0; c < channels; c++) {
+                predictor[c] = sample(in, first, c, channels, eightBit, frames);
+                out[base + c * 4]     = (byte)predictor[c];
+                out[base + c * 4 + 1] = (byte)(predictor[c] >> 8);
+                out[base + c * 4 + 2] = (byte)index[c];
+                out[base + c * 4 + 3] = 0;
+            }
+
+            // 64 more frames, each channel in groups of 8 samples / 4 bytes
+            for (int group = 0; group < 8; group++) {
+                for (int c = 0; c < channels; c++) {
+                    int pos = base + channels * 4 + (group * channels + c) * 4;
+                    for (int i = 0; i < 8; i++) {
+                        int frame = first + 1 + group * 8 + i;
+                        int code = encodeSample(sample(in, frame, c, channels, eightBit, frames), predictor, index, c);
+                        out[pos + i / 2] |= (byte)((i & 1) == 0 ? code : code << 4);
+                    }
+                }
+            }
+        }
+
+        return new CompressedSound(IMA4, out, channels, eightBit ? 8 : 16, pcm.freq, frames);
+    }
+
+    private SoundData decodeIMA4() {
+
+        int blockAlign = BYTES_PER_BLOCK * channels;
+        int blocks = encoded.length / blockAlign;
+        int size = frames * channels * (bits / 8);
+        ByteBuffer data = DirectBufferPool.getShared().acquire(size);
+        ByteBuffer out = data.duplicate().order(ByteOrder.nativeOrder());
+        int[] predictor = new int[channels];
+        int[] index = new int[channels];
+
+        for (int block = 0; block < blocks; block++) {
+            int base = block * blockAlign;
+            int first = block * FRAMES_PER_BLOCK;
+
+            for (int c = 0; c < channels; c++) {
+                predictor[c] = (short)((encoded[base + c * 4] & 0xff) | (encoded[base + c * 4 + 1] << 8));
+                index[c] = Math.min(encoded[base + c * 4 + 2] & 0xff, STEP_TABLE.length - 1);
+                put(out, first, c, channels, frames, predictor[c], bits);
+            }
+
+            for (int group = 0; group < 8; group++) {
+                for (int c = 0; c < channels; c++) {
+                    int pos = base + channels * 4 + (group * channels + c) * 4;
+                    for (int i = 0; i < 8; i++) {
+                        int code = (encoded[pos + i / 2] >> ((i & 1) * 4)) & 0xf;
+                        put(out, first + 1 + group * 8 + i, c, channels, frames,
+                            decodeSample(code, predictor, index, c), bits);
+                    }
+                }
+            }
+        }
+
+        int format;
+        if (bits == 8) {
+            format = (channels == 1) ? AL.AL_FORMAT_MONO8 : AL.AL_FORMAT_STEREO8;
+        }
+        else {
+            format = (channels == 1) ? AL.AL_FORMAT_MONO16 : AL.AL_FORMAT_STEREO16;
+        }
+        return new SoundData(format, data, size, freq, data);
+    }
+
+    private static int encodeSample(int sample, int[] predictor, int[] index, int c) {
+
+        int step = STEP_TABLE[index[c]];
+        int diff = sample - predictor[c];
+        int code = 0;
+        if (diff < 0) {
+            code = 8;
+            diff = -diff;
+        }
+
+        int delta = step >> 3;
+        if (diff >= step) {
+            code |= 4;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            code |= 2;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            code |= 1;
+            delta += step;
+        }
+
+        predictor[c] = clamp16((code & 8) != 0 ? predictor[c] - delta : predictor[c] + delta);
+        index[c] = Math.max(0, Math.min(STEP_TABLE.length - 1, index[c] + INDEX_TABLE[code]));
+        return code;
+    }
+
+    private static int decodeSample(int code, int[] predictor, int[] index, int c) {
+
+        int step = STEP_TABLE[index[c]];
+        int delta = step >> 3;
+        if ((code & 4) != 0) delta += step;
+        if ((code & 2) != 0) delta += step >> 1;
+        if ((code & 1) != 0) delta += step >> 2;
+
+        predictor[c] = clamp16((code & 8) != 0 ? predictor[c] - delta : predictor[c] + delta);
+        index[c] = Math.max(0, Math.min(STEP_TABLE.length - 1, index[c] + INDEX_TABLE[code]));
+        return predictor[c];
+    }
+
+    /**
+     * Reads a sample as 16 bit; frames past the end of the sound are silent.
+     */
+    private static int sample(ByteBuffer in, int frame, int c, int channels, boolean eightBit, int frames) {
+
+        if (frame >= frames) {
+            return 0;
+        }
+        int i = frame * channels + c;
+        return eightBit ? ((in.get(i) & 0xff) - 128) << 8 : in.getShort(i * 2);
+    }
+
+    private static void put(ByteBuffer out, int frame, int c, int channels, int frames, int value, int bits) {
+
+        if (frame < frames) {
+            int i = frame * channels + c;
+            if (bits == 8) {
+                out.put(i, (byte)((value >> 8) + 128));
+            }
+            else {
+                out.putShort(i * 2, (short)value);
+            }
+        }
+    }
+
+    private static int clamp16(int value) {
+
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+}
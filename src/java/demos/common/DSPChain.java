@@ -0,0 +1,265 @@
+package demos.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.java.games.joal.AL;
+
+/**
+ * Filters and effects applied in Java to PCM data before it's handed to
+ * <code>alBufferData</code>, for devices without <code>ALC_EXT_EFX</code>.
+ * Unlike EFX the result is baked into the buffer, so it can't change while
+ * the sound plays; streams get around that by running each chunk through
+ * the chain as it's decoded.
+ * <p>
+ * The samples are deinterleaved into float blocks of {@link #BLOCK} frames
+ * per channel and each {@link Stage stage} runs over a whole block at a
+ * time, so a stage loads its coefficients and state once per block rather
+ * than once per sample.  Stages keep their state between calls, so
+ * consecutive chunks of a stream are filtered seamlessly.
+ * <p>
+ * A chain is not thread-safe; each stream needs its own.
+ */
+public class DSPChain {
+
+    /** Frames per block. */
+    public static final int BLOCK = 256;
+
+    /** Reference frequency of <code>AL_LOWPASS_GAINHF</code>. */
+    public static final float LOWPASS_REFERENCE = 5000f;
+
+    /** Reference frequency of <code>AL_HIGHPASS_GAINLF</code>. */
+    public static final float HIGHPASS_REFERENCE = 250f;
+
+    /**
+     * A processing step of a chain.
+     */
+    public interface Stage {
+
+        /**
+         * Sets the stage up for a format and clears its state.  Called
+         * before the first block and whenever the format changes.
+         */
+        void prepare(int rate, int channels);
+
+        /**
+         * Processes a block in place.
+         *
+         * @param block  One array per channel, of at least <code>frames</code>
+         *               samples in the 16 bit range.
+         * @param frames Number of frames in the block.
+         */
+        void process(float[][] block, int frames);
+    }
+
+    private final List<Stage> stages = new ArrayList<Stage>();
+    private float gain = 1.0f;
+
+    private int rate = 0;
+    private int channels = 0;
+    private final float[][] block = { new float[BLOCK], new float[BLOCK] };
+    private final short[] shorts = new short[BLOCK * 2];
+    private final byte[] bytes = new byte[BLOCK * 2];
+
+    /**
+     * Creates a chain equivalent to an EFX lowpass filter: the gain, and a
+     * high shelf at {@link #LOWPASS_REFERENCE} for the high-frequency gain.
+     */
+    public static DSPChain lowpass(float gain, float gainHF) {
+
+        DSPChain chain = new DSPChain();
+        chain.setGain(gain);
+        chain.add(Biquad.highShelf(LOWPASS_REFERENCE, gainHF));
+        return chain;
+    }
+
+    /**
+     * Creates a chain equivalent to an EFX highpass filter: the gain, and a
+     * low shelf at {@link #HIGHPASS_REFERENCE} for the low-frequency gain.
+     */
+    public static DSPChain highpass(float gain, float gainLF) {
+
+        DSPChain chain = new DSPChain();
+        chain.setGain(gain);
+        chain.add(Biquad.lowShelf(HIGHPASS_REFERENCE, gainLF));
+        return chain;
+    }
+
+    /**
+     * Appends a stage.
+     *
+     * @return This chain.
+     */
+    public DSPChain add(Stage stage) {
+
+        stages.add(stage);
+        if (rate > 0) {
+            stage.prepare(rate, channels);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the gain applied after the last stage.
+     */
+    public void setGain(float gain) {
+
+        this.gain = gain;
+    }
+
+    /**
+     * Clears the state of every stage, eg. before a stream starts over
+     * somewhere else.
+     */
+    public void reset() {
+
+        if (rate > 0) {
+            prepareStages();
+        }
+    }
+
+    /**
+     * Runs one block through the stages, preparing them first if the
+     * format changed.  The chain's gain isn't applied.
+     */
+    public void process(float[][] block, int channels, int frames, int rate) {
+
+        if (rate != this.rate || channels != this.channels) {
+            this.rate = rate;
+            this.channels = channels;
+            prepareStages();
+        }
+        for (int s = 0; s < stages.size(); s++) {
+            stages.get(s).process(block, frames);
+        }
+    }
+
+    /**
+     * Processes interleaved 8 or 16 bit PCM in native byte order, as
+     * <code>alBufferData</code> takes it.  <code>in</code> and
+     * <code>out</code> may be the same buffer.
+     *
+     * @param in     Source samples, from index 0.
+     * @param out    Destination, from index 0.
+     * @param size   Number of bytes.
+     * @param format One of the <code>AL_FORMAT_*</code> constants.
+     * @param rate   Sample rate in Hz.
+     */
+    public void process(ByteBuffer in, ByteBuffer out, int size, int format, int rate) {
+
+        boolean stereo = format == AL.AL_FORMAT_STEREO8 || format == AL.AL_FORMAT_STEREO16;
+        boolean eightBit = format == AL.AL_FORMAT_MONO8 || format == AL.AL_FORMAT_STEREO8;
+        int channels = stereo ? 2 : 1;
+        int frameSize = channels * (eightBit ? 1 : 2);
+        int frames = size / frameSize;
+        // The samples go through interleaved scratch arrays, so the buffers
+        // are only touched by bulk copies
+        ShortBuffer in16 = null;
+        ShortBuffer out16 = null;
+        ByteBuffer in8 = null;
+        ByteBuffer out8 = null;
+        if (eightBit) {
+            in8 = in.duplicate();
+            in8.clear();
+            out8 = out.duplicate();
+            out8.clear();
+        }
+        else {
+            ByteBuffer b = in.duplicate().order(ByteOrder.nativeOrder());
+            b.clear();
+            in16 = b.asShortBuffer();
+            b = out.duplicate().order(ByteOrder.nativeOrder());
+            b.clear();
+            out16 = b.asShortBuffer();
+        }
+
+        for (int start = 0; start < frames; start += BLOCK) {
+            int n = Math.min(BLOCK, frames - start);
+            int count = n * channels;
+            int base = start * channels;
+            if (eightBit) {
+                in8.position(base);
+                in8.get(bytes, 0, count);
+                for (int c = 0; c < channels; c++) {
+                    float[] samples = block[c];
+                    for (int i = 0; i < n; i++) {
+                        samples[i] = ((bytes[i * channels + c] & 0xff) - 128) * 256f;
+                    }
+                }
+            }
+            else {
+                in16.position(base);
+                in16.get(shorts, 0, count);
+                for (int c = 0; c < channels; c++) {
+                    float[] samples = block[c];
+                    for (int i = 0; i < n; i++) {
+                        samples[i] = shorts[i * channels + c];
+                    }
+                }
+            }
+
+            process(block, channels, n, rate);
+
+            for (int c = 0; c < channels; c++) {
+                float[] samples = block[c];
+                for (int i = 0; i < n; i++) {
+                    float s = samples[i] * gain;
+                    s = s < -32768f ? -32768f : (s > 32767f ? 32767f : s);
+                    if (eightBit) {
+                        bytes[i * channels + c] = (byte)(((int)s >> 8) + 128);
+                    }
+                    else {
+                        shorts[i * channels + c] = (short)s;
+                    }
+                }
+            }
+            if (eightBit) {
+                out8.position(base);
+                out8.put(bytes, 0, count);
+            }
+            else {
+                out16.position(base);
+                out16.put(shorts, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Processes a chunk of a stream in place.
+     *
+     * @param pcm    Interleaved samples in native byte order.
+     * @param size   Number of bytes.
+     * @param format One of the <code>AL_FORMAT_*</code> constants.
+     * @param rate   Sample rate in Hz.
+     */
+    public void process(byte[] pcm, int size, int format, int rate) {
+
+        ByteBuffer data = ByteBuffer.wrap(pcm, 0, size);
+        process(data, data, size, format, rate);
+    }
+
+    /**
+     * Processes a whole sound from its start, with the stages' state
+     * cleared first.  The result lives in a pooled buffer; the original is
+     * left as it is, so it can be processed again by other chains.
+     *
+     * @return The processed sound.
+     */
+    public SoundData process(SoundData sound) {
+
+        reset();
+        ByteBuffer data = DirectBufferPool.getShared().acquire(sound.size);
+        process(sound.data, data, sound.size, sound.format, sound.freq);
+        return new SoundData(sound.format, data, sound.size, sound.freq, data);
+    }
+
+    private void prepareStages() {
+
+        for (int s = 0; s < stages.size(); s++) {
+            stages.get(s).prepare(rate, channels);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package demos.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of direct byte buffers, bucketed by power-of-two capacity.  Used to
+ * stage sound data that can't be memory-mapped, so bulk loads reuse the same
+ * few native buffers instead of allocating (and later collecting) one per
+ * file.
+ */
+public class DirectBufferPool {
+
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 30;
+
+    private static final DirectBufferPool shared = new DirectBufferPool(16L * 1024 * 1024);
+
+    private final List<List<ByteBuffer>> buckets = new ArrayList<List<ByteBuffer>>(MAX_SHIFT + 1);
+    private final long maxRetained;
+    private long retained = 0;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param maxRetained Maximum number of idle bytes the pool holds on to.
+     */
+    public DirectBufferPool(long maxRetained) {
+
+        this.maxRetained = maxRetained;
+        for (int i = 0; i <= MAX_SHIFT; i++) {
+            buckets.add(new ArrayList<ByteBuffer>());
+        }
+    }
+
+    /**
+     * @return The pool shared by the sound loaders.
+     */
+    public static DirectBufferPool getShared() {
+
+        return shared;
+    }
+
+    /**
+     * Returns a cleared, native-order direct buffer with a limit of
+     * <code>size</code> bytes.  The capacity may be larger.
+     *
+     * @param size Number of bytes needed.
+     * @return A direct buffer.
+     */
+    public ByteBuffer acquire(int size) {
+
+        int shift = shiftFor(size);
+        synchronized (this) {
+            List<ByteBuffer> bucket = buckets.get(shift);
+            if (!bucket.isEmpty()) {
+                ByteBuffer buffer = bucket.remove(bucket.size() - 1);
+                retained -= buffer.capacity();
+                buffer.clear().limit(size);
+                return buffer;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << shift).order(ByteOrder.nativeOrder());
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer obtained from {@link #acquire} back to the pool.  The
+     * buffer (and any slice of it) must no longer be used.
+     *
+     * @param buffer The buffer to recycle.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1 || retained + capacity > maxRetained) {
+            return;
+        }
+        buckets.get(Integer.numberOfTrailingZeros(capacity)).add(buffer);
+        retained += capacity;
+    }
+
+    private static int shiftFor(int size) {
+
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        if (shift > MAX_SHIFT) {
+            throw new IllegalArgumentException("Buffer too large: " + size);
+        }
+        return Math.max(shift, MIN_SHIFT);
+    }
+}
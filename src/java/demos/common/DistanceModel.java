@@ -0,0 +1,36 @@
+package demos.common;
+
+/**
+ * The gain OpenAL's default inverse distance clamped model gives a source,
+ * shared by the classes that rank sources by how audible they are.
+ */
+final class DistanceModel {
+
+    private DistanceModel() {
+    }
+
+    /**
+     * @param gain              Source gain.
+     * @param distance          Distance from the listener.
+     * @param referenceDistance <code>AL_REFERENCE_DISTANCE</code> of the source.
+     * @param rolloffFactor     <code>AL_ROLLOFF_FACTOR</code> of the source.
+     * @return The attenuated gain.
+     */
+    static float audibility(float gain, float distance, float referenceDistance, float rolloffFactor) {
+
+        distance = Math.max(distance, referenceDistance);
+        return gain * referenceDistance / (referenceDistance + rolloffFactor * (distance - referenceDistance));
+    }
+
+    /**
+     * @return The attenuated gain of a source at a position.
+     */
+    static float audibility(float gain, float[] position, float[] listenerPos,
+                            float referenceDistance, float rolloffFactor) {
+
+        float dx = position[0] - listenerPos[0];
+        float dy = position[1] - listenerPos[1];
+        float dz = position[2] - listenerPos[2];
+        return audibility(gain, (float)Math.sqrt(dx * dx + dy * dy + dz * dz), referenceDistance, rolloffFactor);
+    }
+}
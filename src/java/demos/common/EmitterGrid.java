@@ -0,0 +1,375 @@
+package demos.common;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over emitter positions that finds the most audible emitters
+ * around the listener without looking at all of them.  Scenes can have
+ * thousands of potential emitters while only a few dozen sources are worth
+ * playing; a {@link VoiceManager} should only ever be asked to play what a
+ * query returns, which {@link EmitterVoices} takes care of.
+ * <p>
+ * Cells are hashed into a fixed table of buckets, so the grid is unbounded
+ * and needs no rebuilding as emitters move.  A query walks the cells in
+ * rings of growing size around the listener and stops as soon as no emitter
+ * in the next ring could be louder than the quietest one already found, so
+ * its cost depends on the density around the listener and not on the total
+ * number of emitters.
+ * <p>
+ * Audibility is estimated from each emitter's gain and the
+ * <code>AL_INVERSE_DISTANCE_CLAMPED</code> model, as in {@link LodManager}.
+ * The grid is not thread safe.
+ */
+public class EmitterGrid {
+
+    private final float cellSize;
+    private final int[] buckets;
+    private final int mask;
+
+    private float referenceDistance = 1.0f;
+    private float rolloffFactor = 1.0f;
+    private float maxGain = 0f;
+
+    // Emitters, as parallel arrays indexed by id; next doubles as the free list
+    private int capacity = 0;
+    private int freeList = -1;
+    private int count = 0;
+    private float[] x = new float[0], y = new float[0], z = new float[0];
+    private float[] gain = new float[0];
+    private int[] bucket = new int[0];
+    private int[] next = new int[0], prev = new int[0];
+    private int[] stamp = new int[0];
+    private int queryStamp = 0;
+
+    // Range of occupied cells, grown as emitters are added or moved
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+    // Min-heap of the best candidates during a query, quietest at the root
+    private int[] heapId = new int[0];
+    private float[] heapScore = new float[0];
+    private int heapSize;
+
+    /**
+     * Creates a grid.
+     *
+     * @param cellSize    Edge length of a cell, about the distance within
+     *                    which a handful of emitters are expected.
+     * @param bucketCount Number of hash buckets, rounded up to a power of two.
+     */
+    public EmitterGrid(float cellSize, int bucketCount) {
+
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellSize = cellSize;
+        int size = Integer.highestOneBit(Math.max(bucketCount - 1, 1)) << 1;
+        buckets = new int[size];
+        mask = size - 1;
+        Arrays.fill(buckets, -1);
+    }
+
+    /**
+     * Sets the distance model parameters used to estimate audibility, if they
+     * differ from OpenAL's defaults of 1.
+     */
+    public void setDistanceModel(float referenceDistance, float rolloffFactor) {
+
+        this.referenceDistance = referenceDistance;
+        this.rolloffFactor = rolloffFactor;
+    }
+
+    /**
+     * @return The number of emitters in the grid.
+     */
+    public int size() {
+
+        return count;
+    }
+
+    /**
+     * Adds an emitter.
+     *
+     * @return The emitter's id, which is reused once it's removed.
+     */
+    public int add(float px, float py, float pz, float emitterGain) {
+
+        if (freeList < 0) {
+            grow();
+        }
+        int id = freeList;
+        freeList = next[id];
+        count++;
+
+        x[id] = px;
+        y[id] = py;
+        z[id] = pz;
+        gain[id] = emitterGain;
+        maxGain = Math.max(maxGain, emitterGain);
+        link(id);
+        return id;
+    }
+
+    /**
+     * Moves an emitter; cheap if it stays in the same cell.
+     */
+    public void move(int id, float px, float py, float pz) {
+
+        x[id] = px;
+        y[id] = py;
+        z[id] = pz;
+        int i = cell(px), j = cell(py), k = cell(pz);
+        if (hash(i, j, k) != bucket[id]) {
+            unlink(id);
+            link(id);
+        }
+        else {
+            include(i, j, k);
+        }
+    }
+
+    /**
+     * Changes the gain of an emitter.
+     */
+    public void setGain(int id, float emitterGain) {
+
+        gain[id] = emitterGain;
+        maxGain = Math.max(maxGain, emitterGain);
+    }
+
+    /**
+     * Removes an emitter.
+     */
+    public void remove(int id) {
+
+        unlink(id);
+        bucket[id] = -1;
+        next[id] = freeList;
+        freeList = id;
+        count--;
+    }
+
+    /**
+     * Finds the most audible emitters.
+     *
+     * @param listenerPos Listener position.
+     * @param max         Maximum number of emitters to return.
+     * @param result      Receives the emitter ids, most audible first; must
+     *                    hold at least <code>max</code> entries.
+     * @return The number of ids written to <code>result</code>.
+     */
+    public int query(float[] listenerPos, int max, int[] result) {
+
+        if (max <= 0 || count == 0) {
+            return 0;
+        }
+        if (heapId.length < max) {
+            heapId = new int[max];
+            heapScore = new float[max];
+        }
+        heapSize = 0;
+        if (++queryStamp == 0) {
+            Arrays.fill(stamp, 0);
+            queryStamp = 1;
+        }
+
+        float lx = listenerPos[0], ly = listenerPos[1], lz = listenerPos[2];
+        int cx = cell(lx), cy = cell(ly), cz = cell(lz);
+        int extent = Math.max(Math.max(Math.max(cx - minX, maxX - cx), Math.max(cy - minY, maxY - cy)),
+                              Math.max(cz - minZ, maxZ - cz));
+
+        int visited = 0;
+        for (int r = 0; r <= extent; r++) {
+            // Sparse scenes far from the listener: scanning every emitter is cheaper
+            if (visited > count / 4) {
+                return queryLinear(listenerPos, max, result);
+            }
+            for (int i = cx - r; i <= cx + r; i++) {
+                boolean edgeX = (i == cx - r || i == cx + r);
+                for (int j = cy - r; j <= cy + r; j++) {
+                    boolean edgeY = edgeX || j == cy - r || j == cy + r;
+                    // Only the shell of the cube; the inside was visited already
+                    int step = edgeY ? 1 : 2 * r;
+                    for (int k = cz - r; k <= cz + r; k += step) {
+                        scan(hash(i, j, k), lx, ly, lz, max);
+                        visited++;
+                    }
+                }
+            }
+
+            // Anything in ring r + 1 is at least r cells away
+            if (heapSize == max && audibility(maxGain, r * cellSize) <= heapScore[0]) {
+                break;
+            }
+        }
+
+        // Drain the heap, quietest first, into the result back to front
+        int n = heapSize;
+        for (int i = n - 1; i >= 0; i--) {
+            result[i] = heapId[0];
+            heapId[0] = heapId[heapSize - 1];
+            heapScore[0] = heapScore[heapSize - 1];
+            heapSize--;
+            siftDown(0);
+        }
+        return n;
+    }
+
+    /**
+     * Finds the most audible emitters by looking at all of them; the
+     * reference the grid is measured against.
+     *
+     * @see #query
+     */
+    public int queryLinear(float[] listenerPos, int max, int[] result) {
+
+        if (heapId.length < max) {
+            heapId = new int[max];
+            heapScore = new float[max];
+        }
+        heapSize = 0;
+        for (int id = 0; id < capacity; id++) {
+            if (bucket[id] >= 0) {
+                float dx = x[id] - listenerPos[0], dy = y[id] - listenerPos[1], dz = z[id] - listenerPos[2];
+                offer(id, audibility(gain[id], (float)Math.sqrt(dx * dx + dy * dy + dz * dz)), max);
+            }
+        }
+        int n = heapSize;
+        for (int i = n - 1; i >= 0; i--) {
+            result[i] = heapId[0];
+            heapId[0] = heapId[heapSize - 1];
+            heapScore[0] = heapScore[heapSize - 1];
+            heapSize--;
+            siftDown(0);
+        }
+        return n;
+    }
+
+    private void scan(int b, float lx, float ly, float lz, int max) {
+
+        for (int id = buckets[b]; id >= 0; id = next[id]) {
+            // Several cells can share a bucket
+            if (stamp[id] == queryStamp) {
+                continue;
+            }
+            stamp[id] = queryStamp;
+            float dx = x[id] - lx, dy = y[id] - ly, dz = z[id] - lz;
+            offer(id, audibility(gain[id], (float)Math.sqrt(dx * dx + dy * dy + dz * dz)), max);
+        }
+    }
+
+    private float audibility(float g, float distance) {
+
+        return DistanceModel.audibility(g, distance, referenceDistance, rolloffFactor);
+    }
+
+    private void offer(int id, float score, int max) {
+
+        if (heapSize < max) {
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (heapScore[parent] <= score) {
+                    break;
+                }
+                heapId[i] = heapId[parent];
+                heapScore[i] = heapScore[parent];
+                i = parent;
+            }
+            heapId[i] = id;
+            heapScore[i] = score;
+        }
+        else if (score > heapScore[0]) {
+            heapId[0] = id;
+            heapScore[0] = score;
+            siftDown(0);
+        }
+    }
+
+    private void siftDown(int i) {
+
+        int id = heapId[i];
+        float score = heapScore[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapScore[child + 1] < heapScore[child]) {
+                child++;
+            }
+            if (heapScore[child] >= score) {
+                break;
+            }
+            heapId[i] = heapId[child];
+            heapScore[i] = heapScore[child];
+            i = child;
+        }
+        heapId[i] = id;
+        heapScore[i] = score;
+    }
+
+    private int cell(float coordinate) {
+
+        return (int)Math.floor(coordinate / cellSize);
+    }
+
+    private int hash(int i, int j, int k) {
+
+        return (i * 73856093 ^ j * 19349663 ^ k * 83492791) & mask;
+    }
+
+    private void include(int i, int j, int k) {
+
+        minX = Math.min(minX, i); maxX = Math.max(maxX, i);
+        minY = Math.min(minY, j); maxY = Math.max(maxY, j);
+        minZ = Math.min(minZ, k); maxZ = Math.max(maxZ, k);
+    }
+
+    private void link(int id) {
+
+        int i = cell(x[id]), j = cell(y[id]), k = cell(z[id]);
+        include(i, j, k);
+
+        int b = hash(i, j, k);
+        bucket[id] = b;
+        prev[id] = -1;
+        next[id] = buckets[b];
+        if (buckets[b] >= 0) {
+            prev[buckets[b]] = id;
+        }
+        buckets[b] = id;
+    }
+
+    private void unlink(int id) {
+
+        if (prev[id] >= 0) {
+            next[prev[id]] = next[id];
+        }
+        else {
+            buckets[bucket[id]] = next[id];
+        }
+        if (next[id] >= 0) {
+            prev[next[id]] = prev[id];
+        }
+    }
+
+    private void grow() {
+
+        int size = Math.max(64, capacity * 2);
+        x = ParallelArrays.grow(x, size);
+        y = ParallelArrays.grow(y, size);
+        z = ParallelArrays.grow(z, size);
+        gain = ParallelArrays.grow(gain, size);
+        bucket = ParallelArrays.grow(bucket, size);
+        next = ParallelArrays.grow(next, size);
+        prev = ParallelArrays.grow(prev, size);
+        stamp = ParallelArrays.grow(stamp, size);
+        for (int id = size - 1; id >= capacity; id--) {
+            bucket[id] = -1;
+            next[id] = freeList;
+            freeList = id;
+        }
+        capacity = size;
+    }
+}
@@ -0,0 +1,96 @@
+package demos.common;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures how {@link EmitterGrid} queries scale with the number of
+ * emitters, against a linear scan of all of them.  Emitters are spread
+ * evenly over a flat world and the listener wanders around it; each query
+ * asks for the 32 most audible emitters.  The grid's answers are checked
+ * against the linear scan's.
+ * <p>
+ * Usage: <code>EmitterGridBenchmark [world size] [cell size]</code>
+ */
+public class EmitterGridBenchmark {
+
+    private static final int VOICES = 32;
+    private static final int QUERIES = 2000;
+
+    public static void main(String[] args) {
+
+        float world = (args.length > 0) ? Float.parseFloat(args[0]) : 2000f;
+        float cell = (args.length > 1) ? Float.parseFloat(args[1]) : 25f;
+
+        System.out.println("emitters   grid us/query   linear us/query   speedup");
+        for (int emitters = 1000; emitters <= 256000; emitters *= 4) {
+            run(emitters, world, cell);
+        }
+    }
+
+    private static void run(int emitters, float world, float cell) {
+
+        Random random = new Random(42);
+        EmitterGrid grid = new EmitterGrid(cell, emitters);
+        for (int i = 0; i < emitters; i++) {
+            grid.add(random.nextFloat() * world, random.nextFloat() * 10f, random.nextFloat() * world,
+                     0.5f + random.nextFloat() * 0.5f);
+        }
+
+        float[][] listeners = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            listeners[i] = new float[] { random.nextFloat() * world, 1.0f, random.nextFloat() * world };
+        }
+
+        int[] fast = new int[VOICES];
+        int[] slow = new int[VOICES];
+        for (int i = 0; i < QUERIES; i++) {
+            int n = grid.query(listeners[i], VOICES, fast);
+            int m = grid.queryLinear(listeners[i], VOICES, slow);
+            Arrays.sort(fast, 0, n);
+            Arrays.sort(slow, 0, m);
+            if (n != m || !Arrays.equals(fast, slow)) {
+                throw new IllegalStateException("Grid and linear scan disagree for " + emitters + " emitters");
+            }
+        }
+
+        // Warm up, then time both
+        time(grid, listeners, fast, true);
+        time(grid, listeners, fast, false);
+        double gridTime = time(grid, listeners, fast, true);
+        double linearTime = time(grid, listeners, fast, false);
+
+        System.out.println(pad(Integer.toString(emitters), 8)
+                           + pad(format(gridTime), 16)
+                           + pad(format(linearTime), 18)
+                           + pad(format(linearTime / gridTime) + "x", 10));
+    }
+
+    private static double time(EmitterGrid grid, float[][] listeners, int[] result, boolean useGrid) {
+
+        long start = System.nanoTime();
+        for (int i = 0; i < listeners.length; i++) {
+            if (useGrid) {
+                grid.query(listeners[i], VOICES, result);
+            }
+            else {
+                grid.queryLinear(listeners[i], VOICES, result);
+            }
+        }
+        return (System.nanoTime() - start) / 1e3 / listeners.length;
+    }
+
+    private static String format(double value) {
+
+        return Double.toString(Math.round(value * 10) / 10.0);
+    }
+
+    private static String pad(String s, int width) {
+
+        StringBuffer buf = new StringBuffer();
+        for (int i = s.length(); i < width; i++) {
+            buf.append(' ');
+        }
+        return buf.append(s).toString();
+    }
+}
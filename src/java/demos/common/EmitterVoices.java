@@ -0,0 +1,176 @@
+package demos.common;
+
+import java.util.Arrays;
+
+/**
+ * Plays a large set of looping emitters through a {@link VoiceManager}.
+ * Every {@link #update} asks an {@link EmitterGrid} for the most audible
+ * emitters around the listener, starts voices for the ones that came into
+ * range and stops the ones that dropped out, so the voice manager only ever
+ * scores and virtualizes the few dozen emitters worth playing instead of
+ * all of them.
+ * <p>
+ * An emitter that comes back into range starts its sound over.  All methods
+ * must be called on the thread that has the OpenAL context current.
+ */
+public class EmitterVoices {
+
+    private final VoiceManager voices;
+    private final EmitterGrid grid;
+    private final int maxVoices;
+
+    // Emitters, as parallel arrays indexed by grid id; playing is the index
+    // into active, or -1 while the emitter has no voice
+    private int[] slot = new int[0];
+    private int[] priority = new int[0];
+    private float[] gain = new float[0];
+    private float[][] position = new float[0][];
+    private int[] handle = new int[0];
+    private int[] playing = new int[0];
+    private int[] stamp = new int[0];
+    private int queryStamp = 0;
+
+    // Emitters that have a voice
+    private final int[] active;
+    private int activeCount = 0;
+
+    // Ids returned by the last query
+    private final int[] result;
+
+    /**
+     * @param voices    Voice manager to play the emitters on.
+     * @param grid      Grid to hold the emitters; should be empty.
+     * @param maxVoices Number of emitters to keep voices for, usually about
+     *                  the voice manager's pool size.
+     */
+    public EmitterVoices(VoiceManager voices, EmitterGrid grid, int maxVoices) {
+
+        this.voices = voices;
+        this.grid = grid;
+        this.maxVoices = maxVoices;
+        this.active = new int[maxVoices];
+        this.result = new int[maxVoices];
+    }
+
+    /**
+     * Sets the distance model parameters used by the sources, if they differ
+     * from OpenAL's defaults of 1, so that the grid selects emitters with
+     * the same model the voice manager scores them with.
+     */
+    public void setDistanceModel(float referenceDistance, float rolloffFactor) {
+
+        voices.setDistanceModel(referenceDistance, rolloffFactor);
+        grid.setDistanceModel(referenceDistance, rolloffFactor);
+    }
+
+    /**
+     * Adds a looping emitter.  It starts playing on the next
+     * {@link #update} if it's among the most audible.
+     *
+     * @param slot Slot index in the voice manager's bank.
+     * @param prio Voice priority.
+     * @param pos  Position; call {@link #move} after changing it.
+     * @param gain Gain of the emitter.
+     * @return The emitter's id.
+     */
+    public int add(int slot, int prio, float[] pos, float gain) {
+
+        int id = grid.add(pos[0], pos[1], pos[2], gain);
+        if (id >= handle.length) {
+            grow(Math.max(id + 1, handle.length * 2));
+        }
+        this.slot[id] = slot;
+        priority[id] = prio;
+        this.gain[id] = gain;
+        position[id] = pos;
+        playing[id] = -1;
+        return id;
+    }
+
+    /**
+     * Tells the grid that an emitter's position has changed.
+     */
+    public void move(int id) {
+
+        float[] p = position[id];
+        grid.move(id, p[0], p[1], p[2]);
+    }
+
+    /**
+     * Removes an emitter, stopping its voice.
+     */
+    public void remove(int id) {
+
+        if (playing[id] >= 0) {
+            stopVoice(id);
+        }
+        grid.remove(id);
+        position[id] = null;
+    }
+
+    /**
+     * @return The number of emitters that currently have a voice, real or
+     *         virtual.
+     */
+    public int getPlaying() {
+
+        return activeCount;
+    }
+
+    /**
+     * Hands the most audible emitters to the voice manager and
+     * {@link VoiceManager#update updates} it.
+     *
+     * @param listenerPos Listener position.
+     */
+    public void update(float[] listenerPos) {
+
+        int n = grid.query(listenerPos, maxVoices, result);
+        if (++queryStamp == 0) {
+            Arrays.fill(stamp, 0);
+            queryStamp = 1;
+        }
+        for (int i = 0; i < n; i++) {
+            stamp[result[i]] = queryStamp;
+        }
+
+        // Stop what dropped out first, so the newcomers find free sources
+        for (int i = activeCount - 1; i >= 0; i--) {
+            int id = active[i];
+            if (stamp[id] != queryStamp || !voices.isActive(handle[id])) {
+                stopVoice(id);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            int id = result[i];
+            if (playing[id] < 0) {
+                handle[id] = voices.play(slot[id], priority[id], position[id], gain[id], true, listenerPos);
+                playing[id] = activeCount;
+                active[activeCount++] = id;
+            }
+        }
+
+        voices.update(listenerPos);
+    }
+
+    private void stopVoice(int id) {
+
+        voices.stop(handle[id]);
+        int i = playing[id];
+        int last = active[--activeCount];
+        active[i] = last;
+        playing[last] = i;
+        playing[id] = -1;
+    }
+
+    private void grow(int size) {
+
+        slot = ParallelArrays.grow(slot, size);
+        priority = ParallelArrays.grow(priority, size);
+        handle = ParallelArrays.grow(handle, size);
+        playing = ParallelArrays.grow(playing, size);
+        stamp = ParallelArrays.grow(stamp, size);
+        gain = ParallelArrays.grow(gain, size);
+        position = ParallelArrays.grow(position, size);
+    }
+}
@@ -0,0 +1,298 @@
+package demos.common;
+
+import net.java.games.joal.AL;
+
+/**
+ * Registry of AL objects of one kind - sources, buffers, filters, effects or
+ * auxiliary effect slots - with an <code>int</code> tag of metadata each.
+ * Objects are referred to by handles that carry a generation count, so a
+ * handle kept after its object was unregistered is recognised as stale
+ * instead of silently addressing whatever object reuses the entry.  Names
+ * are looked up through an {@link IntIntMap}, so nothing on the hot path
+ * allocates or boxes, and objects are deleted in bulk with one
+ * <code>alDelete*</code> call.
+ * <p>
+ * Not thread safe; use it on the thread that owns the context.
+ */
+public class HandleRegistry {
+
+    public static final int SOURCES = 0;
+    public static final int BUFFERS = 1;
+    public static final int FILTERS = 2;
+    public static final int EFFECTS = 3;
+    public static final int AUXILIARY_EFFECT_SLOTS = 4;
+
+    /** Handle returned when there is no object. */
+    public static final int NONE = -1;
+
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    private final int kind;
+    private final IntIntMap byName;
+
+    // Entries, as parallel arrays; next doubles as the free list
+    private int capacity = 0;
+    private int count = 0;
+    private int freeList = -1;
+    private int[] names = new int[0];
+    private int[] tags = new int[0];
+    private int[] generations = new int[0];
+    private boolean[] live = new boolean[0];
+    private int[] next = new int[0];
+
+    private int[] scratch = new int[16];
+
+    /**
+     * @param kind One of {@link #SOURCES}, {@link #BUFFERS}, {@link #FILTERS},
+     *             {@link #EFFECTS} or {@link #AUXILIARY_EFFECT_SLOTS}.
+     */
+    public HandleRegistry(int kind) {
+
+        this.kind = kind;
+        byName = new IntIntMap(16, NONE);
+    }
+
+    /**
+     * @return The number of registered objects.
+     */
+    public int size() {
+
+        return count;
+    }
+
+    /**
+     * Registers an object, or changes its tag if it's registered already.
+     *
+     * @return The object's handle.
+     */
+    public int register(int name, int tag) {
+
+        int handle = byName.get(name);
+        if (handle != NONE) {
+            tags[handle & INDEX_MASK] = tag;
+            return handle;
+        }
+
+        if (freeList < 0) {
+            grow();
+        }
+        int index = freeList;
+        freeList = next[index];
+        names[index] = name;
+        tags[index] = tag;
+        live[index] = true;
+        count++;
+        handle = (generations[index] << INDEX_BITS) | index;
+        byName.put(name, handle);
+        return handle;
+    }
+
+    /**
+     * Creates objects with one <code>alGen*</code> call and registers them.
+     *
+     * @param handles Receives the new handles.
+     */
+    public void generate(AL al, int n, int tag, int[] handles, int offset) {
+
+        int[] ids = scratch(n);
+        switch (kind) {
+        case SOURCES:                al.alGenSources(n, ids, 0); break;
+        case BUFFERS:                al.alGenBuffers(n, ids, 0); break;
+        case FILTERS:                al.alGenFilters(n, ids, 0); break;
+        case EFFECTS:                al.alGenEffects(n, ids, 0); break;
+        case AUXILIARY_EFFECT_SLOTS: al.alGenAuxiliaryEffectSlots(n, ids, 0); break;
+        }
+        for (int i = 0; i < n; i++) {
+            handles[offset + i] = register(ids[i], tag);
+        }
+    }
+
+    /**
+     * @return The handle of a registered object, or {@link #NONE}.
+     */
+    public int lookup(int name) {
+
+        return byName.get(name);
+    }
+
+    /**
+     * @return <code>true</code> if the handle refers to a registered object.
+     */
+    public boolean isValid(int handle) {
+
+        int index = handle & INDEX_MASK;
+        return handle != NONE && index < capacity && live[index]
+               && generations[index] == (handle >>> INDEX_BITS);
+    }
+
+    /**
+     * @return The AL name of the object.
+     * @throws IllegalArgumentException if the handle is stale.
+     */
+    public int name(int handle) {
+
+        return names[check(handle)];
+    }
+
+    public int getTag(int handle) {
+
+        return tags[check(handle)];
+    }
+
+    public void setTag(int handle, int tag) {
+
+        tags[check(handle)] = tag;
+    }
+
+    /**
+     * Forgets an object without deleting it; stale handles are ignored.
+     */
+    public void unregister(int handle) {
+
+        if (isValid(handle)) {
+            remove(handle & INDEX_MASK);
+        }
+    }
+
+    /**
+     * Forgets an object by name without deleting it.
+     */
+    public void unregisterName(int name) {
+
+        int handle = byName.get(name);
+        if (handle != NONE) {
+            remove(handle & INDEX_MASK);
+        }
+    }
+
+    /**
+     * Forgets every object without deleting any.
+     */
+    public void clear() {
+
+        for (int i = 0; i < capacity; i++) {
+            if (live[i]) {
+                remove(i);
+            }
+        }
+    }
+
+    /**
+     * Copies the handles of all registered objects.
+     *
+     * @param handles Receives the handles; must hold {@link #size} entries.
+     * @return The number of handles written.
+     */
+    public int handles(int[] handles) {
+
+        int n = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (live[i]) {
+                handles[n++] = (generations[i] << INDEX_BITS) | i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Deletes objects with one <code>alDelete*</code> call and unregisters
+     * them; stale handles are skipped.
+     */
+    public void delete(AL al, int[] handles, int offset, int n) {
+
+        int[] ids = scratch(n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            int handle = handles[offset + i];
+            if (isValid(handle)) {
+                int index = handle & INDEX_MASK;
+                ids[m++] = names[index];
+                remove(index);
+            }
+        }
+        delete(al, ids, m);
+    }
+
+    /**
+     * Deletes every registered object with one <code>alDelete*</code> call.
+     */
+    public void deleteAll(AL al) {
+
+        int[] ids = scratch(count);
+        int m = 0;
+        for (int i = 0; i < capacity; i++) {
+            if (live[i]) {
+                ids[m++] = names[i];
+                remove(i);
+            }
+        }
+        delete(al, ids, m);
+    }
+
+    private void delete(AL al, int[] ids, int n) {
+
+        if (n == 0) {
+            return;
+        }
+        switch (kind) {
+        case SOURCES:                al.alDeleteSources(n, ids, 0); break;
+        case BUFFERS:                al.alDeleteBuffers(n, ids, 0); break;
+        case FILTERS:                al.alDeleteFilters(n, ids, 0); break;
+        case EFFECTS:                al.alDeleteEffects(n, ids, 0); break;
+        case AUXILIARY_EFFECT_SLOTS: al.alDeleteAuxiliaryEffectSlots(n, ids, 0); break;
+        }
+    }
+
+    private int check(int handle) {
+
+        if (!isValid(handle)) {
+            throw new IllegalArgumentException("Stale handle " + Integer.toHexString(handle));
+        }
+        return handle & INDEX_MASK;
+    }
+
+    private void remove(int index) {
+
+        byName.remove(names[index]);
+        live[index] = false;
+        // Generations wrap within the bits left above the index
+        generations[index] = (generations[index] + 1) & ((1 << (31 - INDEX_BITS)) - 1);
+        next[index] = freeList;
+        freeList = index;
+        count--;
+    }
+
+    private int[] scratch(int n) {
+
+        if (scratch.length < n) {
+            scratch = new int[Math.max(n, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    private void grow() {
+
+        int size = Math.max(16, capacity * 2);
+        if (size > INDEX_MASK + 1) {
+            throw new IllegalStateException("Too many objects");
+        }
+        int[] n = new int[size], t = new int[size], g = new int[size], f = new int[size];
+        boolean[] l = new boolean[size];
+        System.arraycopy(names, 0, n, 0, capacity);
+        System.arraycopy(tags, 0, t, 0, capacity);
+        System.arraycopy(generations, 0, g, 0, capacity);
+        System.arraycopy(live, 0, l, 0, capacity);
+        System.arraycopy(next, 0, f, 0, capacity);
+        for (int i = size - 1; i >= capacity; i--) {
+            f[i] = freeList;
+            freeList = i;
+        }
+        names = n;
+        tags = t;
+        generations = g;
+        live = l;
+        next = f;
+        capacity = size;
+    }
+}
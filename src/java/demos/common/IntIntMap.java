@@ -0,0 +1,163 @@
+package demos.common;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from <code>int</code> keys to <code>int</code>
+ * values, for looking up AL object names on hot paths without boxing.
+ * Linear probing with backward-shift deletion keeps lookups short and needs
+ * no tombstones.  Not thread safe.
+ */
+public class IntIntMap {
+
+    private final int missing;
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int mask;
+    private int size = 0;
+
+    /**
+     * @param capacity Expected number of entries.
+     * @param missing  Value returned by {@link #get} for absent keys.
+     */
+    public IntIntMap(int capacity, int missing) {
+
+        this.missing = missing;
+        allocate(Integer.highestOneBit(Math.max(capacity * 2 - 1, 8)) << 1);
+    }
+
+    public int size() {
+
+        return size;
+    }
+
+    /**
+     * @return The value for a key, or the missing value.
+     */
+    public int get(int key) {
+
+        for (int i = hash(key); used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return missing;
+    }
+
+    public boolean containsKey(int key) {
+
+        for (int i = hash(key); used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The previous value for the key, or the missing value.
+     */
+    public int put(int key, int value) {
+
+        int i = hash(key);
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return missing;
+    }
+
+    /**
+     * @return The removed value, or the missing value.
+     */
+    public int remove(int key) {
+
+        int i = hash(key);
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                break;
+            }
+        }
+        if (!used[i]) {
+            return missing;
+        }
+        int removed = values[i];
+        size--;
+
+        // Shift later entries of the run back into the gap
+        int gap = i;
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = hash(keys[j]);
+            // Move j into the gap unless its home lies cyclically in (gap, j]
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        used[gap] = false;
+        return removed;
+    }
+
+    /**
+     * Copies the keys into an array, in no particular order.
+     *
+     * @param result Receives the keys; must hold at least {@link #size}
+     *               entries.
+     * @return The number of keys written.
+     */
+    public int keys(int[] result) {
+
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                result[n++] = keys[i];
+            }
+        }
+        return n;
+    }
+
+    public void clear() {
+
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private int hash(int key) {
+
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int length) {
+
+        keys = new int[length];
+        values = new int[length];
+        used = new boolean[length];
+        mask = length - 1;
+    }
+
+    private void rehash(int length) {
+
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(length);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package demos.common;
+
+import net.java.games.joal.AL;
+
+/**
+ * Switches voices between full-rate sounds and the reduced-rate variants a
+ * {@link SoundBank} provides, depending on how loud they are at the listener.
+ * Faint voices cost the mixer just as much as loud ones; playing them from a
+ * variant at half or a quarter of the rate cuts both mixing and memory
+ * bandwidth in dense scenes without an audible difference.
+ * <p>
+ * Loudness is estimated from the source gain and OpenAL's default
+ * <code>AL_INVERSE_DISTANCE_CLAMPED</code> model.  A voice moves to level
+ * <i>n</i> once its estimated gain drops below the <i>n</i>th
+ * {@link #setThresholds threshold}, and back up once it rises above that
+ * threshold by the {@link #setHysteresis hysteresis} factor.
+ * <p>
+ * All methods must be called on the thread that has the OpenAL context
+ * current, typically once per update for {@link #update}.
+ */
+public class LodManager {
+
+    /** Number of levels, including the full-rate level 0. */
+    public static final int MAX_LEVELS = 4;
+
+    private final AL al;
+    private final SoundBank bank;
+
+    private float[] thresholds = { 0.25f, 0.0625f };
+    private float hysteresis = 1.25f;
+    private float referenceDistance = 1.0f;
+    private float rolloffFactor = 1.0f;
+
+    // Managed voices, as parallel arrays
+    private int count = 0;
+    private int[] sources = new int[16];
+    private int[] slots = new int[16];
+    private int[] levels = new int[16];
+    private float[] gains = new float[16];
+    private float[][] positions = new float[16][];
+
+    // Index into the arrays above per source ID
+    private final IntIntMap indices = new IntIntMap(16, -1);
+
+    private int swaps = 0;
+
+    // Scratch for source queries
+    private final int[] sourceState = new int[1];
+    private final float[] secOffset = new float[1];
+
+    /**
+     * @param al   AL instance.
+     * @param bank Bank that provides the sounds and their variants.
+     */
+    public LodManager(AL al, SoundBank bank) {
+
+        this.al = al;
+        this.bank = bank;
+    }
+
+    /**
+     * Sets the gains below which voices move to the next level.
+     *
+     * @param thresholds Descending gains, one per level above 0; at most
+     *                   {@link #MAX_LEVELS} - 1 of them.
+     */
+    public void setThresholds(float[] thresholds) {
+
+        if (thresholds.length >= MAX_LEVELS) {
+            throw new IllegalArgumentException("At most " + (MAX_LEVELS - 1) + " thresholds");
+        }
+        this.thresholds = thresholds.clone();
+    }
+
+    /**
+     * Sets how far above a threshold a voice's gain has to rise before it
+     * moves back to the better level, to keep voices near a threshold from
+     * switching back and forth.
+     *
+     * @param hysteresis Factor, 1 or more.
+     */
+    public void setHysteresis(float hysteresis) {
+
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Sets the distance model parameters used by the sources, if they differ
+     * from OpenAL's defaults of 1.
+     */
+    public void setDistanceModel(float referenceDistance, float rolloffFactor) {
+
+        this.referenceDistance = referenceDistance;
+        this.rolloffFactor = rolloffFactor;
+    }
+
+    /**
+     * Starts managing a voice.  The source should already be bound to the
+     * slot through the bank.
+     *
+     * @param source   Source ID.
+     * @param slot     Slot index in the bank.
+     * @param position Source position; read on every {@link #update}, so
+     *                 the caller can keep moving it.
+     * @param gain     Source gain.
+     */
+    public void manage(int source, int slot, float[] position, float gain) {
+
+        manage(source, slot, position, gain, 0);
+    }
+
+    /**
+     * Starts managing a voice that the caller has bound at some level,
+     * usually the one {@link #selectLevel} picked.
+     *
+     * @param level The level the source is bound at.
+     * @see #manage(int, int, float[], float)
+     */
+    public void manage(int source, int slot, float[] position, float gain, int level) {
+
+        if (indices.containsKey(source)) {
+            unmanage(source);
+        }
+        if (count == sources.length) {
+            int size = count * 2;
+            sources = ParallelArrays.grow(sources, size);
+            slots = ParallelArrays.grow(slots, size);
+            levels = ParallelArrays.grow(levels, size);
+            gains = ParallelArrays.grow(gains, size);
+            positions = ParallelArrays.grow(positions, size);
+        }
+        sources[count] = source;
+        slots[count] = slot;
+        levels[count] = level;
+        gains[count] = gain;
+        positions[count] = position;
+        indices.put(source, count);
+        count++;
+    }
+
+    /**
+     * Stops managing a voice.
+     *
+     * @param source Source ID.
+     */
+    public void unmanage(int source) {
+
+        int i = indices.remove(source);
+        if (i < 0) {
+            return;
+        }
+        count--;
+        sources[i] = sources[count];
+        slots[i] = slots[count];
+        levels[i] = levels[count];
+        gains[i] = gains[count];
+        positions[i] = positions[count];
+        positions[count] = null;
+        if (i != count) {
+            indices.put(sources[i], i);
+        }
+    }
+
+    /**
+     * Re-evaluates every voice against the listener position and swaps the
+     * ones whose level changed.
+     *
+     * @param listenerPos Listener position.
+     */
+    public void update(float[] listenerPos) {
+
+        for (int i = 0; i < count; i++) {
+            int level = level(levels[i], estimate(positions[i], gains[i], listenerPos));
+            if (level != levels[i]) {
+                swap(i, level);
+            }
+        }
+    }
+
+    /**
+     * Picks the level a voice should start at, so it doesn't have to be
+     * swapped on the first {@link #update}.
+     *
+     * @param position    Source position.
+     * @param gain        Source gain.
+     * @param listenerPos Listener position.
+     * @return The level to bind the source at.
+     */
+    public int selectLevel(float[] position, float gain, float[] listenerPos) {
+
+        return level(0, estimate(position, gain, listenerPos));
+    }
+
+    /**
+     * @return The number of times a voice has been moved to another level.
+     */
+    public int getSwaps() {
+
+        return swaps;
+    }
+
+    /**
+     * @param source Source ID.
+     * @return The voice's current level, or -1 if it isn't managed.
+     */
+    public int getLevel(int source) {
+
+        int i = indices.get(source);
+        return (i < 0) ? -1 : levels[i];
+    }
+
+    private float estimate(float[] p, float gain, float[] listenerPos) {
+
+        return DistanceModel.audibility(gain, p, listenerPos, referenceDistance, rolloffFactor);
+    }
+
+    private int level(int level, float gain) {
+
+        while (level < thresholds.length && gain < thresholds[level]) {
+            level++;
+        }
+        while (level > 0 && gain > thresholds[level - 1] * hysteresis) {
+            level--;
+        }
+        return level;
+    }
+
+    /**
+     * Rebinds a voice to another variant, continuing from the same point in
+     * the sound.  The buffer of a playing source can't be changed, so the
+     * source is rewound, rebound, seeked and restarted.
+     */
+    private void swap(int i, int level) {
+
+        int source = sources[i];
+        al.alGetSourcei(source, AL.AL_SOURCE_STATE, sourceState, 0);
+        al.alGetSourcef(source, AL.AL_SEC_OFFSET, secOffset, 0);
+
+        al.alSourceRewind(source);
+        bank.bind(source, slots[i], level);
+        al.alSourcef(source, AL.AL_SEC_OFFSET, secOffset[0]);
+        if (sourceState[0] == AL.AL_PLAYING) {
+            al.alSourcePlay(source);
+        }
+
+        levels[i] = level;
+        swaps++;
+    }
+}
@@ -0,0 +1,39 @@
+package demos.common;
+
+/**
+ * Growth of the parallel arrays the voice, emitter and LOD managers keep
+ * their entries in.  Each returns a copy of the array at the new size.
+ */
+final class ParallelArrays {
+
+    private ParallelArrays() {
+    }
+
+    static int[] grow(int[] array, int size) {
+
+        int[] grown = new int[size];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    static float[] grow(float[] array, int size) {
+
+        float[] grown = new float[size];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    static boolean[] grow(boolean[] array, int size) {
+
+        boolean[] grown = new boolean[size];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    static float[][] grow(float[][] array, int size) {
+
+        float[][] grown = new float[size][];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
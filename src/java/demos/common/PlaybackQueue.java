@@ -0,0 +1,400 @@
+package demos.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALC;
+import net.java.games.joal.ALCcontext;
+
+/**
+ * Plays buffers at scheduled times on the device's sample clock rather than
+ * whenever a wall-clock check happens to pass.
+ * <p>
+ * The clock is a silent, looping reference source: its
+ * <code>AL_SAMPLE_OFFSET</code> advances with the mixer, so it counts samples
+ * actually rendered.  Events wait in a timing wheel keyed by their clock
+ * time.  Each {@link #update} dispatches every event due within the
+ * look-ahead, all inside one suspended context so they start in the same
+ * mixer update.
+ * <p>
+ * To land on the exact sample, a dispatched source gets a queue of a silent
+ * lead-in buffer followed by the sound, and its <code>AL_SAMPLE_OFFSET</code>
+ * is set into the lead-in so that the sound starts exactly as many samples
+ * from now as the event is ahead of the clock.  Events that are already late
+ * start at the matching offset into the sound instead, so they stay on the
+ * sample grid, and are dropped if they would have finished already.
+ * <p>
+ * The look-ahead must be longer than the interval between updates.  The
+ * queue must be used on the thread that has its context current.
+ */
+public class PlaybackQueue {
+
+    private static final int WHEEL_SIZE = 256;
+
+    private final AL al;
+    private final ALC alc;
+    private final int clockRate;
+    private final long lookahead;        // clock samples
+
+    // The reference source and the state to extend its looping offset
+    private final int clockSource;
+    private final int clockBuffer;
+    private final int clockLength;
+    private long clockLoops = 0;
+    private int lastOffset = 0;
+    private long lastClock = 0;
+    private long lastRead = System.nanoTime();
+
+    // Silent lead-in buffers, one per sound format
+    private int silenceCount = 0;
+    private int[] silenceKeys = new int[4];
+    private int[] silenceBuffers = new int[4];
+    private int[] silenceSamples = new int[4];
+
+    // Timing wheel; each bucket covers 'width' clock samples and holds a
+    // linked list of events through next[]
+    private final long width;
+    private final int[] wheel = new int[WHEEL_SIZE];
+    private long cursor;                 // first bucket not fully dispatched
+
+    // Events, as parallel arrays; next doubles as the free list
+    private int capacity = 0;
+    private int freeList = -1;
+    private int pending = 0;
+    private long[] time = new long[0];
+    private int[] source = new int[0];
+    private int[] buffer = new int[0];
+    private int[] next = new int[0];
+    private SourceMonitor.Listener[] listener = new SourceMonitor.Listener[0];
+
+    private SourceMonitor monitor;
+    private long dispatched = 0;
+    private long dropped = 0;
+
+    private final int[] value = new int[1];
+    private final int[] queue = new int[2];
+
+    /**
+     * Creates a queue and starts its clock.
+     *
+     * @param al        AL instance.
+     * @param alc       ALC instance.
+     * @param clockRate Rate of the clock in samples per second, normally the
+     *                  device's output rate.
+     * @param lookahead How far ahead of the clock events are dispatched, in
+     *                  seconds.
+     */
+    public PlaybackQueue(AL al, ALC alc, int clockRate, float lookahead) {
+
+        this.al = al;
+        this.alc = alc;
+        this.clockRate = clockRate;
+        this.lookahead = Math.max(1, (long)(lookahead * clockRate));
+        width = this.lookahead;
+        Arrays.fill(wheel, -1);
+
+        // A second of silence, looping, is the clock
+        clockLength = clockRate;
+        clockBuffer = silence(AL.AL_FORMAT_MONO16, 2, clockLength, clockRate);
+        int[] ids = new int[1];
+        al.alGenSources(1, ids, 0);
+        clockSource = ids[0];
+        al.alSourcei(clockSource, AL.AL_BUFFER, clockBuffer);
+        al.alSourcei(clockSource, AL.AL_LOOPING, AL.AL_TRUE);
+        al.alSourcei(clockSource, AL.AL_SOURCE_RELATIVE, AL.AL_TRUE);
+        al.alSourcef(clockSource, AL.AL_GAIN, 0f);
+        al.alSourcePlay(clockSource);
+
+        cursor = 0;
+    }
+
+    /**
+     * @return The clock rate in samples per second.
+     */
+    public int getClockRate() {
+
+        return clockRate;
+    }
+
+    /**
+     * Sets the monitor that listeners passed to {@link #schedule} are
+     * registered with once their event has been dispatched.
+     */
+    public void setMonitor(SourceMonitor monitor) {
+
+        this.monitor = monitor;
+    }
+
+    /**
+     * @return The current clock time in samples.
+     */
+    public long now() {
+
+        al.alGetSourcei(clockSource, AL.AL_SAMPLE_OFFSET, value, 0);
+        long nanos = System.nanoTime();
+        if ((nanos - lastRead) * 2 > 1000000000L * clockLength / clockRate) {
+            // Too long since the last read to count wraps; estimate the
+            // number of loops from the wall clock instead
+            double estimate = lastClock + (nanos - lastRead) / 1e9 * clockRate;
+            clockLoops = Math.max(clockLoops, Math.round((estimate - value[0]) / clockLength));
+        }
+        else if (value[0] < lastOffset) {
+            clockLoops++;
+        }
+        lastOffset = value[0];
+        lastRead = nanos;
+        lastClock = clockLoops * clockLength + value[0];
+        return lastClock;
+    }
+
+    /**
+     * Schedules a buffer to play.
+     *
+     * @param at       Clock time to start at, in samples.
+     * @param src      Source to play on; its buffer and queue are replaced.
+     * @param buf      Buffer to play.
+     * @param done     Notified through the monitor when the sound has
+     *                 finished, or <code>null</code>.
+     */
+    public void schedule(long at, int src, int buf, SourceMonitor.Listener done) {
+
+        if (freeList < 0) {
+            grow();
+        }
+        int e = freeList;
+        freeList = next[e];
+        time[e] = at;
+        source[e] = src;
+        buffer[e] = buf;
+        listener[e] = done;
+        link(e);
+        pending++;
+    }
+
+    /**
+     * @return The number of events waiting to be dispatched.
+     */
+    public int getPending() {
+
+        return pending;
+    }
+
+    /**
+     * @return The number of events dispatched so far.
+     */
+    public long getDispatched() {
+
+        return dispatched;
+    }
+
+    /**
+     * @return The number of events dropped because they were too late.
+     */
+    public long getDropped() {
+
+        return dropped;
+    }
+
+    /**
+     * Dispatches every event due before the clock plus the look-ahead.
+     *
+     * @return The number of events dispatched.
+     */
+    public int update() {
+
+        if (pending == 0) {
+            cursor = Math.max(cursor, (now() + lookahead) / width);
+            return 0;
+        }
+
+        int count = 0;
+        ALCcontext context = alc.alcGetCurrentContext();
+        alc.alcSuspendContext(context);
+        try {
+            long current = now();
+            long horizon = current + lookahead;
+            long last = horizon / width;
+            // After a long gap, one turn of the wheel covers every bucket
+            for (long b = Math.max(cursor, last - WHEEL_SIZE + 1); b <= last; b++) {
+                int index = (int)(b & (WHEEL_SIZE - 1));
+                int prev = -1;
+                int e = wheel[index];
+                while (e >= 0) {
+                    int following = next[e];
+                    if (time[e] < horizon) {
+                        if (prev < 0) {
+                            wheel[index] = following;
+                        }
+                        else {
+                            next[prev] = following;
+                        }
+                        dispatch(e, current);
+                        free(e);
+                        count++;
+                    }
+                    else {
+                        prev = e;
+                    }
+                    e = following;
+                }
+            }
+            // The last bucket may still hold events beyond the horizon
+            cursor = last;
+        }
+        finally {
+            alc.alcProcessContext(context);
+        }
+        return count;
+    }
+
+    /**
+     * Drops pending events and deletes the clock and lead-in buffers.
+     */
+    public void release() {
+
+        Arrays.fill(wheel, -1);
+        Arrays.fill(listener, null);
+        pending = 0;
+        al.alSourceStop(clockSource);
+        al.alDeleteSources(1, new int[] { clockSource }, 0);
+        al.alDeleteBuffers(1, new int[] { clockBuffer }, 0);
+        al.alDeleteBuffers(silenceCount, silenceBuffers, 0);
+        silenceCount = 0;
+    }
+
+    private void dispatch(int e, long current) {
+
+        int buf = buffer[e];
+        al.alGetBufferi(buf, AL.AL_FREQUENCY, value, 0);
+        int freq = value[0];
+        al.alGetBufferi(buf, AL.AL_BITS, value, 0);
+        int bits = value[0];
+        al.alGetBufferi(buf, AL.AL_CHANNELS, value, 0);
+        int channels = value[0];
+
+        int s = silenceFor(bits, channels, freq);
+        int leadIn = silenceSamples[s];
+
+        // Distance from the clock, converted to the buffer's rate
+        long delay = (time[e] - current) * freq / clockRate;
+        long offset = leadIn - delay;
+        if (offset >= leadIn) {
+            al.alGetBufferi(buf, AL.AL_SIZE, value, 0);
+            long length = value[0] / Math.max(1, bits / 8 * channels);
+            if (offset - leadIn >= length) {
+                dropped++;
+                return;
+            }
+        }
+
+        int src = source[e];
+        al.alSourceStop(src);
+        al.alSourcei(src, AL.AL_BUFFER, 0);
+        al.alSourcei(src, AL.AL_LOOPING, AL.AL_FALSE);
+        queue[0] = silenceBuffers[s];
+        queue[1] = buf;
+        al.alSourceQueueBuffers(src, 2, queue, 0);
+        al.alSourcei(src, AL.AL_SAMPLE_OFFSET, (int)Math.max(0, offset));
+        al.alSourcePlay(src);
+        dispatched++;
+
+        if (listener[e] != null && monitor != null) {
+            monitor.watch(src, listener[e]);
+        }
+    }
+
+    /**
+     * Finds or creates the lead-in buffer for a format; it's a little longer
+     * than the look-ahead so any delay fits into it.
+     */
+    private int silenceFor(int bits, int channels, int freq) {
+
+        int key = (freq << 8) | (channels << 5) | bits;
+        for (int i = 0; i < silenceCount; i++) {
+            if (silenceKeys[i] == key) {
+                return i;
+            }
+        }
+        if (silenceCount == silenceKeys.length) {
+            int size = silenceCount * 2;
+            int[] k = new int[size], b = new int[size], n = new int[size];
+            System.arraycopy(silenceKeys, 0, k, 0, silenceCount);
+            System.arraycopy(silenceBuffers, 0, b, 0, silenceCount);
+            System.arraycopy(silenceSamples, 0, n, 0, silenceCount);
+            silenceKeys = k;
+            silenceBuffers = b;
+            silenceSamples = n;
+        }
+
+        int format;
+        if (channels == 1) {
+            format = (bits == 8) ? AL.AL_FORMAT_MONO8 : AL.AL_FORMAT_MONO16;
+        }
+        else {
+            format = (bits == 8) ? AL.AL_FORMAT_STEREO8 : AL.AL_FORMAT_STEREO16;
+        }
+        int samples = (int)((2 * lookahead * freq) / clockRate) + 1;
+        silenceKeys[silenceCount] = key;
+        silenceBuffers[silenceCount] = silence(format, bits / 8 * channels, samples, freq);
+        silenceSamples[silenceCount] = samples;
+        return silenceCount++;
+    }
+
+    private int silence(int format, int frameSize, int samples, int freq) {
+
+        ByteBuffer data = ByteBuffer.allocateDirect(samples * frameSize).order(ByteOrder.nativeOrder());
+        if (format == AL.AL_FORMAT_MONO8 || format == AL.AL_FORMAT_STEREO8) {
+            // 8 bit samples are unsigned
+            while (data.hasRemaining()) {
+                data.put((byte)0x80);
+            }
+            data.flip();
+        }
+        int[] ids = new int[1];
+        al.alGenBuffers(1, ids, 0);
+        al.alBufferData(ids[0], format, data, data.capacity(), freq);
+        return ids[0];
+    }
+
+    private void link(int e) {
+
+        // Events for buckets already passed go into the current one
+        long b = Math.max(time[e] / width, cursor);
+        int index = (int)(b & (WHEEL_SIZE - 1));
+        next[e] = wheel[index];
+        wheel[index] = e;
+    }
+
+    private void free(int e) {
+
+        listener[e] = null;
+        next[e] = freeList;
+        freeList = e;
+        pending--;
+    }
+
+    private void grow() {
+
+        int size = Math.max(16, capacity * 2);
+        long[] t = new long[size];
+        int[] s = new int[size], b = new int[size], n = new int[size];
+        SourceMonitor.Listener[] l = new SourceMonitor.Listener[size];
+        System.arraycopy(time, 0, t, 0, capacity);
+        System.arraycopy(source, 0, s, 0, capacity);
+        System.arraycopy(buffer, 0, b, 0, capacity);
+        System.arraycopy(next, 0, n, 0, capacity);
+        System.arraycopy(listener, 0, l, 0, capacity);
+        for (int i = size - 1; i >= capacity; i--) {
+            n[i] = freeList;
+            freeList = i;
+        }
+        time = t;
+        source = s;
+        buffer = b;
+        next = n;
+        listener = l;
+        capacity = size;
+    }
+}
@@ -0,0 +1,191 @@
+package demos.common;
+
+/**
+ * A Schroeder reverb stage: the channels are mixed down, pre-delayed and
+ * fed through four damped comb filters in parallel and two allpass filters
+ * in series, and the result is added to every channel.  It's nowhere near
+ * EFX's reverb, but follows the decay time, damping, pre-delay and level of
+ * an EFX reverb's {@link #setParameters parameters}.
+ * <p>
+ * The comb delays are all longer than a block, so each filter runs over a
+ * whole block without reading anything written in the same block.
+ */
+public class SimpleReverb implements DSPChain.Stage {
+
+    private static final float[] COMB_SECONDS = { 0.0297f, 0.0371f, 0.0411f, 0.0437f };
+    private static final float[] ALLPASS_SECONDS = { 0.0050f, 0.0017f };
+    private static final float ALLPASS_FEEDBACK = 0.5f;
+    private static final float MAX_PREDELAY = 0.3f;
+
+    // Scales the sum of the combs back to about the input's level
+    private static final float WET_SCALE = 0.125f;
+
+    // EFX's generic reverb until set otherwise
+    private float decayTime = 1.49f;
+    private float gainHF = 0.8913f;
+    private float decayHFRatio = 0.83f;
+    private float gain = 0.3981f;
+    private float delay = 0.018f;
+
+    private int rate = 0;
+    private int channels = 0;
+
+    private final float[] feedback = new float[COMB_SECONDS.length];
+    private float damping;
+    private float level;
+
+    private float[][] combs;
+    private int[] combPos;
+    private float[] combFilter;
+    private float[][] allpasses;
+    private int[] allpassPos;
+    private float[] predelay;
+    private int predelayLength;
+    private int predelayPos;
+
+    private final float[] input = new float[DSPChain.BLOCK];
+    private final float[] wet = new float[DSPChain.BLOCK];
+
+    /**
+     * Changes the environment without cutting the tail that's ringing.  The
+     * parameters are named after their EFX reverb counterparts.
+     *
+     * @param decayTime    Seconds for the tail to decay by 60 dB.
+     * @param gainHF       High-frequency gain of the tail, 0 to 1.
+     * @param decayHFRatio High-frequency decay time relative to
+     *                     <code>decayTime</code>.
+     * @param gain         Level of the tail; the EFX gain times the late
+     *                     reverb gain.
+     * @param delay        Pre-delay in seconds, up to 0.3; the EFX
+     *                     reflections delay plus the late reverb delay.
+     */
+    public void setParameters(float decayTime, float gainHF, float decayHFRatio, float gain, float delay) {
+
+        this.decayTime = decayTime;
+        this.gainHF = gainHF;
+        this.decayHFRatio = decayHFRatio;
+        this.gain = gain;
+        this.delay = delay;
+        if (rate > 0) {
+            configure();
+        }
+    }
+
+    public void prepare(int rate, int channels) {
+
+        this.rate = rate;
+        this.channels = channels;
+
+        combs = new float[COMB_SECONDS.length][];
+        combPos = new int[COMB_SECONDS.length];
+        combFilter = new float[COMB_SECONDS.length];
+        for (int k = 0; k < combs.length; k++) {
+            combs[k] = new float[Math.max(DSPChain.BLOCK, (int)(COMB_SECONDS[k] * rate))];
+        }
+        allpasses = new float[ALLPASS_SECONDS.length][];
+        allpassPos = new int[ALLPASS_SECONDS.length];
+        for (int k = 0; k < allpasses.length; k++) {
+            allpasses[k] = new float[Math.max(1, (int)(ALLPASS_SECONDS[k] * rate))];
+        }
+        predelay = new float[(int)(MAX_PREDELAY * rate) + 1];
+        predelayPos = 0;
+
+        configure();
+    }
+
+    /**
+     * Derives the filter parameters: each comb's feedback
+     * makes it decay by 60 dB over the decay time, and the damping follows
+     * the high-frequency gain and decay ratio.
+     */
+    private void configure() {
+
+        for (int k = 0; k < feedback.length; k++) {
+            float combDelay = (float)combs[k].length / rate;
+            feedback[k] = (float)Math.pow(10.0, -3.0 * combDelay / Math.max(decayTime, 0.1f));
+        }
+        damping = 1.0f - gainHF * Math.min(decayHFRatio, 1.0f);
+        damping = Math.max(0.0f, Math.min(damping, 0.8f));
+        level = gain * WET_SCALE;
+        predelayLength = Math.min((int)(delay * rate), predelay.length);
+        if (predelayPos >= predelayLength) {
+            predelayPos = 0;
+        }
+    }
+
+    public void process(float[][] block, int frames) {
+
+        // Mix down
+        float[] first = block[0];
+        if (channels == 1) {
+            System.arraycopy(first, 0, input, 0, frames);
+        }
+        else {
+            float[] second = block[1];
+            for (int i = 0; i < frames; i++) {
+                input[i] = (first[i] + second[i]) * 0.5f;
+            }
+        }
+
+        if (predelayLength > 0) {
+            int pos = predelayPos;
+            for (int i = 0; i < frames; i++) {
+                float delayed = predelay[pos];
+                predelay[pos] = input[i];
+                input[i] = delayed;
+                if (++pos == predelayLength) {
+                    pos = 0;
+                }
+            }
+            predelayPos = pos;
+        }
+
+        for (int i = 0; i < frames; i++) {
+            wet[i] = 0.0f;
+        }
+
+        float keep = damping;
+        float take = 1.0f - damping;
+        for (int k = 0; k < combs.length; k++) {
+            float[] buffer = combs[k];
+            int length = buffer.length;
+            int pos = combPos[k];
+            float fb = feedback[k];
+            float filter = combFilter[k];
+            for (int i = 0; i < frames; i++) {
+                float y = buffer[pos];
+                filter = y * take + filter * keep;
+                buffer[pos] = input[i] + filter * fb;
+                wet[i] += y;
+                if (++pos == length) {
+                    pos = 0;
+                }
+            }
+            combPos[k] = pos;
+            combFilter[k] = filter;
+        }
+
+        for (int k = 0; k < allpasses.length; k++) {
+            float[] buffer = allpasses[k];
+            int length = buffer.length;
+            int pos = allpassPos[k];
+            for (int i = 0; i < frames; i++) {
+                float delayed = buffer[pos];
+                float in = wet[i];
+                buffer[pos] = in + delayed * ALLPASS_FEEDBACK;
+                wet[i] = delayed - in;
+                if (++pos == length) {
+                    pos = 0;
+                }
+            }
+            allpassPos[k] = pos;
+        }
+
+        for (int c = 0; c < channels; c++) {
+            float[] x = block[c];
+            for (int i = 0; i < frames; i++) {
+                x[i] += wet[i] * level;
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package demos.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.java.games.joal.AL;
+
+/**
+ * A packed archive of uncompressed sounds, as written by
+ * {@link SoundArchiveWriter}.  The archive is memory-mapped once and every
+ * sound is returned as a slice of the mapping, so nothing is copied between
+ * the file and <code>alBufferData</code>.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ *   int   magic ('JSND')
+ *   int   version
+ *   int   count
+ *   count entries of:
+ *     short  name length, followed by the UTF-8 name
+ *     int    OpenAL format
+ *     int    sample rate
+ *     int    payload offset from the start of the file
+ *     int    payload size in bytes
+ *   payloads, each aligned to {@link #ALIGNMENT} bytes
+ * </pre>
+ * Payloads are little-endian PCM, as in WAV files.  On big-endian hosts
+ * 16-bit sounds are copied into native order the first time they're
+ * requested, since OpenAL takes samples in native order.
+ */
+public class SoundArchive {
+
+    public static final int MAGIC     = 0x4A534E44;
+    public static final int VERSION   = 1;
+    public static final int ALIGNMENT = 16;
+
+    /** Class path location of the archive built from <code>demos/data</code>. */
+    public static final String DEFAULT_RESOURCE = "demos/data/sounds.pak";
+
+    private static SoundArchive defaultArchive;
+    private static boolean defaultLoaded = false;
+
+    private final ByteBuffer contents;
+    private final Map<String, SoundData> entries = new HashMap<String, SoundData>();
+
+    // Entries already in native order
+    private final Set<String> swapped = new HashSet<String>();
+
+    /**
+     * Memory-maps an archive file.
+     *
+     * @param file Archive file.
+     * @throws IOException If the file can't be read or isn't an archive.
+     */
+    public SoundArchive(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            raf.close();
+        }
+        readIndex();
+    }
+
+    /**
+     * Wraps archive contents that are already in memory, eg: read from a jar.
+     *
+     * @param contents Archive contents.
+     * @throws IOException If the contents aren't an archive.
+     */
+    public SoundArchive(ByteBuffer contents) throws IOException {
+
+        this.contents = contents;
+        readIndex();
+    }
+
+    /**
+     * Returns the archive built from <code>demos/data</code>, or
+     * <code>null</code> if it isn't on the class path.  The archive is mapped
+     * directly when it's a plain file, and otherwise read once into a direct
+     * buffer.
+     */
+    public static synchronized SoundArchive getDefault() {
+
+        if (!defaultLoaded) {
+            defaultLoaded = true;
+            URL url = SoundArchive.class.getClassLoader().getResource(DEFAULT_RESOURCE);
+            if (url != null) {
+                try {
+                    if ("file".equals(url.getProtocol())) {
+                        defaultArchive = new SoundArchive(new File(url.toURI()));
+                    }
+                    else {
+                        defaultArchive = new SoundArchive(readFully(url.openStream()));
+                    }
+                }
+                catch (Exception ex) {
+                    System.err.println("Ignoring sound archive " + url + ": " + ex.getMessage());
+                }
+            }
+        }
+        return defaultArchive;
+    }
+
+    /**
+     * @return The names of all sounds in the archive.
+     */
+    public Set<String> names() {
+
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Returns a sound whose data is a slice of the archive contents, or on
+     * big-endian hosts a native-order copy for 16-bit sounds.
+     *
+     * @param name Sound name, eg: "demos/data/Gun1.wav".
+     * @return The sound, or <code>null</code> if it isn't in the archive.
+     */
+    public synchronized SoundData get(String name) {
+
+        SoundData sound = entries.get(name);
+        if (sound == null || ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN || swapped.contains(name)) {
+            return sound;
+        }
+        if (sound.format == AL.AL_FORMAT_MONO16 || sound.format == AL.AL_FORMAT_STEREO16) {
+            ByteBuffer data = ByteBuffer.allocateDirect(sound.size).order(ByteOrder.nativeOrder());
+            WAVReader.swapToNative(sound.data, data);
+            sound = new SoundData(sound.format, data, sound.size, sound.freq);
+            entries.put(name, sound);
+        }
+        swapped.add(name);
+        return sound;
+    }
+
+    private void readIndex() throws IOException {
+
+        ByteBuffer in = contents.duplicate();
+        if (in.remaining() < 12 || in.getInt() != MAGIC) {
+            throw new IOException("Not a sound archive");
+        }
+        if (in.getInt() != VERSION) {
+            throw new IOException("Unsupported sound archive version");
+        }
+
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[in.getShort() & 0xffff];
+            in.get(name);
+            int format = in.getInt();
+            int freq = in.getInt();
+            int offset = in.getInt();
+            int size = in.getInt();
+
+            ByteBuffer data = contents.duplicate();
+            data.position(offset);
+            data.limit(offset + size);
+            entries.put(new String(name, "UTF-8"), new SoundData(format, data.slice(), size, freq));
+        }
+    }
+
+    private static ByteBuffer readFully(InputStream in) throws IOException {
+
+        try {
+            byte[] chunk = new byte[64 * 1024];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(chunk.length);
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                if (buffer.remaining() < read) {
+                    ByteBuffer grown = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+                    buffer.flip();
+                    grown.put(buffer);
+                    buffer = grown;
+                }
+                buffer.put(chunk, 0, read);
+            }
+            buffer.flip();
+            return buffer;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package demos.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import net.java.games.joal.AL;
+
+/**
+ * Packs a directory of WAV files into a {@link SoundArchive}.  Run by the
+ * build to produce <code>demos/data/sounds.pak</code>:
+ * <pre>
+ *   java demos.common.SoundArchiveWriter &lt;output&gt; &lt;directory&gt; &lt;name prefix&gt;
+ * </pre>
+ */
+public class SoundArchiveWriter {
+
+    private static class Entry {
+        String name;
+        int format;
+        int freq;
+        byte[] pcm;
+    }
+
+    /**
+     * Decodes a WAV file to 8-bit unsigned or 16-bit signed little-endian PCM,
+     * the layouts OpenAL expects.
+     */
+    private static Entry decode(File file, String name) throws IOException, UnsupportedAudioFileException {
+
+        AudioInputStream in = AudioSystem.getAudioInputStream(file);
+        AudioFormat format = in.getFormat();
+        int channels = format.getChannels();
+        if (channels != 1 && channels != 2) {
+            throw new UnsupportedAudioFileException(file + ": " + channels + " channels");
+        }
+
+        boolean eightBit = format.getSampleSizeInBits() == 8;
+        AudioFormat target = new AudioFormat(
+                eightBit ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                format.getSampleRate(), eightBit ? 8 : 16, channels,
+                channels * (eightBit ? 1 : 2), format.getSampleRate(), false);
+        if (!format.matches(target)) {
+            in = AudioSystem.getAudioInputStream(target, in);
+        }
+
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(chunk)) > 0) {
+            pcm.write(chunk, 0, read);
+        }
+        in.close();
+
+        Entry entry = new Entry();
+        entry.name = name;
+        entry.freq = (int)format.getSampleRate();
+        entry.pcm = pcm.toByteArray();
+        if (eightBit) {
+            entry.format = (channels == 1) ? AL.AL_FORMAT_MONO8 : AL.AL_FORMAT_STEREO8;
+        }
+        else {
+            entry.format = (channels == 1) ? AL.AL_FORMAT_MONO16 : AL.AL_FORMAT_STEREO16;
+        }
+        return entry;
+    }
+
+    private static int align(int offset) {
+
+        return (offset + SoundArchive.ALIGNMENT - 1) / SoundArchive.ALIGNMENT * SoundArchive.ALIGNMENT;
+    }
+
+    /**
+     * Writes an archive holding every WAV file in a directory.
+     *
+     * @param output    Archive file to write.
+     * @param directory Directory to scan.
+     * @param prefix    Prefix for the entry names, eg: "demos/data/".
+     */
+    public static void write(File output, File directory, String prefix) throws IOException, UnsupportedAudioFileException {
+
+        String[] files = directory.list();
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+
+        List<Entry> entries = new ArrayList<Entry>();
+        int indexSize = 12;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].toLowerCase().endsWith(".wav")) {
+                Entry entry = decode(new File(directory, files[i]), prefix + files[i]);
+                entries.add(entry);
+                indexSize += 2 + entry.name.getBytes("UTF-8").length + 16;
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(output));
+        try {
+            out.writeInt(SoundArchive.MAGIC);
+            out.writeInt(SoundArchive.VERSION);
+            out.writeInt(entries.size());
+
+            int offset = align(indexSize);
+            for (Entry entry : entries) {
+                byte[] name = entry.name.getBytes("UTF-8");
+                out.writeShort(name.length);
+                out.write(name);
+                out.writeInt(entry.format);
+                out.writeInt(entry.freq);
+                out.writeInt(offset);
+                out.writeInt(entry.pcm.length);
+                offset = align(offset + entry.pcm.length);
+            }
+
+            for (Entry entry : entries) {
+                out.write(new byte[align(out.size()) - out.size()]);
+                out.write(entry.pcm);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 3) {
+            System.err.println("Usage: SoundArchiveWriter <output> <directory> <name prefix>");
+            System.exit(1);
+        }
+        File output = new File(args[0]);
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
+        }
+        write(output, new File(args[1]), args[2]);
+    }
+}
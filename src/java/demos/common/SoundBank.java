@@ -0,0 +1,485 @@
+package demos.common;
+
+import java.util.concurrent.Future;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALException;
+
+/**
+ * A fixed set of sounds, each identified by a slot index and backed by one
+ * OpenAL buffer.  Slots are populated the first time {@link #buffer} asks for
+ * them, so a session only pays for the sounds it actually plays.  Sounds that
+ * are likely to be needed soon can be {@link #prefetch prefetched}, which
+ * parses them in the background and leaves only the upload for later.
+ * <p>
+ * The bank keeps track of how many bytes it has handed to
+ * <code>alBufferData</code>.  When a {@link #setBudget budget} is set, loading a
+ * sound first evicts the least recently used buffers that no playing or
+ * paused source is {@link #bind bound} to.  An evicted slot is simply empty
+ * again and reloads on its next use.  If every resident buffer is in use the
+ * budget is exceeded rather than failing the load.
+ * <p>
+ * In {@link #setCompressed compressed} mode the bank keeps every sound it has
+ * loaded as a {@link CompressedSound} and only decodes it into a buffer when
+ * the slot is used.  Evicted slots then reload from memory rather than from
+ * disk.
+ * <p>
+ * Each slot can also provide reduced-rate {@link #buffer(int, int) variants}
+ * of its sound for distant voices (see {@link LodManager}).  Variants are
+ * generated on first use, count towards the budget and are evicted together
+ * with their slot.
+ * <p>
+ * Apart from {@link #prefetch}, all methods must be called on the thread that
+ * has the OpenAL context current.
+ */
+public class SoundBank {
+
+    private final AL al;
+    private final AsyncSoundLoader loader;
+    private final String[] resources;
+
+    // Buffer ID per slot, 0 while the slot is empty
+    private final int[] buffers;
+
+    // Outstanding background loads per slot
+    private final Future<?>[] pending;
+
+    // Reduced-rate variant buffers per slot and level (index 0 unused)
+    private final int[][] variants;
+
+    // Length in seconds per slot, known once the slot has been uploaded
+    private final float[] durations;
+
+    // Uploaded bytes (including variants) and last use (in ticks of
+    // useClock) per slot
+    private final int[] bytes;
+    private final long[] lastUse;
+    private long useClock = 0;
+
+    // Compressed copies of the sounds, in compressed mode
+    private boolean compressed = false;
+    private final CompressedSound[] packed;
+    private long compressedBytes = 0;
+
+    // Rate to normalize sounds to, 0 for none
+    private int normalizeRate = 0;
+
+    // Bound sources, tagged with their slot index
+    private final HandleRegistry boundSources = new HandleRegistry(HandleRegistry.SOURCES);
+    private int[] boundHandles = new int[16];
+    private final int[] state = new int[1];
+
+    private long budget = Long.MAX_VALUE;
+    private long residentBytes = 0;
+    private int evictions = 0;
+
+    /**
+     * Creates an empty sound bank.
+     *
+     * @param al        AL instance.
+     * @param loader    Loader used for prefetching.
+     * @param resources Class path resource for each slot.
+     */
+    public SoundBank(AL al, AsyncSoundLoader loader, String[] resources) {
+
+        this.al = al;
+        this.loader = loader;
+        this.resources = resources.clone();
+        this.buffers = new int[resources.length];
+        this.pending = new Future<?>[resources.length];
+        this.bytes = new int[resources.length];
+        this.lastUse = new long[resources.length];
+        this.variants = new int[resources.length][LodManager.MAX_LEVELS];
+        this.durations = new float[resources.length];
+        this.packed = new CompressedSound[resources.length];
+    }
+
+    /**
+     * Keeps sounds compressed in memory and decodes them only when they're
+     * used.  Must be set before anything is loaded.
+     *
+     * @param compressed <code>true</code> to enable compressed mode.
+     */
+    public void setCompressed(boolean compressed) {
+
+        this.compressed = compressed;
+    }
+
+    /**
+     * Converts every sound to 16 bit mono at the given rate as it's loaded;
+     * see {@link SoundNormalizer}.  Meant for banks whose sounds all play on
+     * positional sources.  Must be set before anything is loaded.
+     *
+     * @param rate Sample rate, usually the device's, or 0 to disable.
+     */
+    public void setNormalization(int rate) {
+
+        this.normalizeRate = rate;
+    }
+
+    /**
+     * @return The number of bytes of compressed sound data held in memory.
+     */
+    public long getCompressedBytes() {
+
+        return compressedBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes this bank should keep uploaded.  The
+     * budget is enforced when the next sound is loaded.
+     *
+     * @param budget Budget in bytes, or <code>Long.MAX_VALUE</code> for none.
+     */
+    public void setBudget(long budget) {
+
+        this.budget = budget;
+    }
+
+    /**
+     * @return The budget in bytes.
+     */
+    public long getBudget() {
+
+        return budget;
+    }
+
+    /**
+     * @return The number of bytes currently uploaded to OpenAL buffers.
+     */
+    public long getResidentBytes() {
+
+        return residentBytes;
+    }
+
+    /**
+     * @param slot Slot index.
+     * @return The number of bytes uploaded for the slot, 0 if not loaded.
+     */
+    public int getResidentBytes(int slot) {
+
+        return bytes[slot];
+    }
+
+    /**
+     * @return The number of buffers evicted so far.
+     */
+    public int getEvictions() {
+
+        return evictions;
+    }
+
+    /**
+     * @return The number of slots in this bank.
+     */
+    public int size() {
+
+        return resources.length;
+    }
+
+    /**
+     * @param slot Slot index.
+     * @return <code>true</code> if the slot has been uploaded to a buffer.
+     */
+    public boolean isLoaded(int slot) {
+
+        return buffers[slot] != 0;
+    }
+
+    /**
+     * Starts parsing a slot's sound in the background, if it isn't loaded or
+     * already on its way.
+     *
+     * @param slot Slot index.
+     */
+    public synchronized void prefetch(int slot) {
+
+        if (buffers[slot] == 0 && pending[slot] == null) {
+            if (!compressed) {
+                pending[slot] = loader.load(resources[slot], normalizeRate);
+            }
+            else if (packed[slot] == null) {
+                pending[slot] = loader.loadCompressed(resources[slot], normalizeRate);
+            }
+        }
+    }
+
+    /**
+     * Loads every slot up front, parsing them all in parallel.
+     */
+    public void loadAll() {
+
+        for (int i = 0; i < resources.length; i++) {
+            prefetch(i);
+        }
+        for (int i = 0; i < resources.length; i++) {
+            buffer(i);
+        }
+    }
+
+    /**
+     * Returns the buffer for a slot, loading and uploading the sound first if
+     * this is the first time it's needed.
+     *
+     * @param slot Slot index.
+     * @return Buffer ID.
+     * @throws ALException If the sound couldn't be loaded.
+     */
+    public int buffer(int slot) {
+
+        lastUse[slot] = ++useClock;
+        if (buffers[slot] != 0) {
+            return buffers[slot];
+        }
+
+        Future<?> future;
+        synchronized (this) {
+            future = pending[slot];
+            pending[slot] = null;
+        }
+
+        // Either a decoded sound, or one that's uploaded without decoding
+        SoundData sound = null;
+        CompressedSound nativeSound = null;
+        if (compressed) {
+            if (packed[slot] == null) {
+                packed[slot] = (future != null) ? (CompressedSound)AsyncSoundLoader.await(future)
+                                                : CompressedSound.load(resources[slot], normalizeRate);
+                compressedBytes += packed[slot].size();
+            }
+            if (packed[slot].isNativeSupported(al)) {
+                nativeSound = packed[slot];
+            }
+            else {
+                sound = packed[slot].decode();
+            }
+        }
+        else {
+            sound = (future != null) ? (SoundData)AsyncSoundLoader.await(future)
+                                     : SoundData.load(resources[slot], normalizeRate);
+        }
+
+        int size = (sound != null) ? sound.size : nativeSound.size();
+        makeRoom(size);
+
+        int[] ids = new int[1];
+        genBuffer(slot, ids);
+        if (sound != null) {
+            sound.upload(al, ids[0]);
+            durations[slot] = sound.getDuration();
+            sound.recycle();
+        }
+        else {
+            nativeSound.uploadNative(al, ids[0]);
+            durations[slot] = nativeSound.getDuration();
+        }
+        buffers[slot] = ids[0];
+        bytes[slot] += size;
+        residentBytes += size;
+        return ids[0];
+    }
+
+    /**
+     * Returns the length of a slot's sound, loading it first if this is the
+     * first time it's needed.  Unlike the buffer's size this doesn't depend
+     * on how the sound is encoded, nor on which variant is playing.
+     *
+     * @param slot Slot index.
+     * @return Length in seconds.
+     * @throws ALException If the sound couldn't be loaded.
+     */
+    public float getDuration(int slot) {
+
+        if (buffers[slot] == 0) {
+            buffer(slot);
+        }
+        return durations[slot];
+    }
+
+    /**
+     * Returns a reduced-rate variant of a slot's sound, generating it first
+     * if necessary.  Level <i>n</i> plays at the sound's rate divided by
+     * 2<sup><i>n</i></sup> (but not below 4000 Hz), as 16 bit mono.
+     *
+     * @param slot  Slot index.
+     * @param level Variant level, 0 for the sound itself.
+     * @return Buffer ID.
+     * @throws ALException If the sound couldn't be loaded.
+     */
+    public int buffer(int slot, int level) {
+
+        if (level == 0) {
+            return buffer(slot);
+        }
+        lastUse[slot] = ++useClock;
+        if (variants[slot][level] != 0) {
+            return variants[slot][level];
+        }
+
+        SoundData full = (compressed && packed[slot] != null) ? packed[slot].decode()
+                                                              : SoundData.load(resources[slot], normalizeRate);
+        int rate = Math.max(4000, full.freq >> level);
+        SoundData sound = SoundNormalizer.normalize(full, Math.min(rate, full.freq));
+
+        makeRoom(sound.size);
+        int[] ids = new int[1];
+        genBuffer(slot, ids);
+        sound.upload(al, ids[0]);
+        sound.recycle();
+        variants[slot][level] = ids[0];
+        bytes[slot] += sound.size;
+        residentBytes += sound.size;
+        return ids[0];
+    }
+
+    private void genBuffer(int slot, int[] ids) {
+
+        al.alGenBuffers(1, ids, 0);
+        if (al.alGetError() != AL.AL_NO_ERROR) {
+            throw new ALException("Error generating buffer for " + resources[slot]);
+        }
+    }
+
+    /**
+     * Attaches a slot's buffer to a source, loading it if necessary.  While a
+     * bound source is playing or paused the slot won't be evicted.  If the
+     * slot is evicted while the source is stopped, the source is detached
+     * from it and has to be bound again before it's played.
+     *
+     * @param source Source ID.
+     * @param slot   Slot index.
+     */
+    public void bind(int source, int slot) {
+
+        bind(source, slot, 0);
+    }
+
+    /**
+     * Attaches a variant of a slot's sound to a source, as {@link #bind(int, int)}.
+     *
+     * @param source Source ID.
+     * @param slot   Slot index.
+     * @param level  Variant level, see {@link #buffer(int, int)}.
+     */
+    public void bind(int source, int slot, int level) {
+
+        al.alSourcei(source, AL.AL_BUFFER, buffer(slot, level));
+        boundSources.register(source, slot);
+    }
+
+    /**
+     * Forgets about a source, eg: before it's deleted.
+     *
+     * @param source Source ID.
+     */
+    public void unbind(int source) {
+
+        boundSources.unregisterName(source);
+    }
+
+    /**
+     * Evicts least recently used buffers until <code>size</code> more bytes fit
+     * into the budget, or nothing more can be evicted.
+     */
+    private void makeRoom(int size) {
+
+        while (residentBytes + size > budget) {
+            int victim = -1;
+            for (int i = 0; i < buffers.length; i++) {
+                if (bytes[i] != 0 && (victim == -1 || lastUse[i] < lastUse[victim]) && !inUse(i)) {
+                    victim = i;
+                }
+            }
+            if (victim == -1) {
+                return;
+            }
+            evict(victim);
+        }
+    }
+
+    /**
+     * Checks if any source bound to the slot is playing or paused.
+     */
+    private boolean inUse(int slot) {
+
+        int n = boundHandles();
+        for (int i = 0; i < n; i++) {
+            if (boundSources.getTag(boundHandles[i]) == slot) {
+                al.alGetSourcei(boundSources.name(boundHandles[i]), AL.AL_SOURCE_STATE, state, 0);
+                if (state[0] == AL.AL_PLAYING || state[0] == AL.AL_PAUSED) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Detaches a slot from its (stopped) sources and deletes its buffers.
+     */
+    private void evict(int slot) {
+
+        int n = boundHandles();
+        for (int i = 0; i < n; i++) {
+            if (boundSources.getTag(boundHandles[i]) == slot) {
+                al.alSourcei(boundSources.name(boundHandles[i]), AL.AL_BUFFER, 0);
+                boundSources.unregister(boundHandles[i]);
+            }
+        }
+        int[] ids = new int[LodManager.MAX_LEVELS];
+        al.alDeleteBuffers(collectBuffers(slot, ids, 0), ids, 0);
+        evictions++;
+    }
+
+    /**
+     * Copies the handles of the bound sources into boundHandles.
+     */
+    private int boundHandles() {
+
+        if (boundHandles.length < boundSources.size()) {
+            boundHandles = new int[boundSources.size() * 2];
+        }
+        return boundSources.handles(boundHandles);
+    }
+
+    /**
+     * Empties a slot, collecting its buffer and variant IDs for deletion.
+     *
+     * @return The number of IDs added at <code>offset</code>.
+     */
+    private int collectBuffers(int slot, int[] ids, int offset) {
+
+        int n = offset;
+        if (buffers[slot] != 0) {
+            ids[n++] = buffers[slot];
+            buffers[slot] = 0;
+        }
+        for (int level = 1; level < variants[slot].length; level++) {
+            if (variants[slot][level] != 0) {
+                ids[n++] = variants[slot][level];
+                variants[slot][level] = 0;
+            }
+        }
+        residentBytes -= bytes[slot];
+        bytes[slot] = 0;
+        return n - offset;
+    }
+
+    /**
+     * Deletes every buffer this bank has created.
+     */
+    public synchronized void release() {
+
+        boundSources.clear();
+        int[] ids = new int[buffers.length * LodManager.MAX_LEVELS];
+        int n = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            if (pending[i] != null) {
+                pending[i].cancel(false);
+                pending[i] = null;
+            }
+            n += collectBuffers(i, ids, n);
+        }
+        al.alDeleteBuffers(n, ids, 0);
+    }
+}
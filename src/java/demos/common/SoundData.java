@@ -0,0 +1,138 @@
+package demos.common;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALException;
+
+/**
+ * Decoded PCM data together with the format information needed to hand it
+ * to <code>alBufferData</code>.  Instances don't change once created and may
+ * be passed freely between threads.
+ */
+public final class SoundData {
+
+    /** OpenAL format, one of the <code>AL_FORMAT_*</code> constants. */
+    public final int format;
+
+    /** The sample data. */
+    public final ByteBuffer data;
+
+    /** Number of bytes of sample data. */
+    public final int size;
+
+    /** Sample rate in Hz. */
+    public final int freq;
+
+    // Pooled buffer backing the data, if any
+    private ByteBuffer pooled;
+
+    public SoundData(int format, ByteBuffer data, int size, int freq) {
+
+        this(format, data, size, freq, null);
+    }
+
+    /**
+     * @param pooled Buffer from the {@link DirectBufferPool#getShared shared pool}
+     *               that <code>data</code> is a slice of, or <code>null</code>.
+     */
+    public SoundData(int format, ByteBuffer data, int size, int freq, ByteBuffer pooled) {
+
+        this.format = format;
+        this.data = data;
+        this.size = size;
+        this.freq = freq;
+        this.pooled = pooled;
+    }
+
+    /**
+     * Loads a sound from the class path.  If the packed
+     * {@link SoundArchive#getDefault default archive} is available the sound
+     * is a zero-copy slice of it, otherwise the WAV file itself is parsed.
+     *
+     * @param resource Class path resource name, eg: "demos/data/Gun1.wav".
+     * @return The sound.
+     * @throws ALException If the resource can't be found or parsed.
+     */
+    public static SoundData load(String resource) {
+
+        SoundArchive archive = SoundArchive.getDefault();
+        SoundData sound = (archive != null) ? archive.get(resource) : null;
+        return (sound != null) ? sound : loadWAV(resource);
+    }
+
+    /**
+     * Loads a sound from the class path like {@link #load(String)}, and
+     * optionally {@link SoundNormalizer normalizes} it to 16 bit mono.
+     *
+     * @param resource      Class path resource name.
+     * @param normalizeRate Sample rate to convert to, or 0 to leave the
+     *                      sound as it is.
+     * @return The sound.
+     * @throws ALException If the resource can't be found or parsed.
+     */
+    public static SoundData load(String resource, int normalizeRate) {
+
+        SoundData sound = load(resource);
+        return (normalizeRate > 0) ? SoundNormalizer.normalize(sound, normalizeRate) : sound;
+    }
+
+    /**
+     * Loads a WAV file from the class path.
+     *
+     * @param resource Class path resource name, eg: "demos/data/Gun1.wav".
+     * @return The decoded sound.
+     * @throws ALException If the resource can't be found or parsed.
+     */
+    public static SoundData loadWAV(String resource) {
+
+        URL url = SoundData.class.getClassLoader().getResource(resource);
+        if (url == null) {
+            throw new ALException("Sound resource not found: " + resource);
+        }
+        try {
+            return WAVReader.read(url);
+        }
+        catch (IOException ex) {
+            throw new ALException("Error loading WAV file " + resource, ex);
+        }
+    }
+
+    /**
+     * @return The length of the sound in seconds.
+     */
+    public float getDuration() {
+
+        boolean stereo = format == AL.AL_FORMAT_STEREO8 || format == AL.AL_FORMAT_STEREO16;
+        boolean eightBit = format == AL.AL_FORMAT_MONO8 || format == AL.AL_FORMAT_STEREO8;
+        int frameSize = (stereo ? 2 : 1) * (eightBit ? 1 : 2);
+        return (freq > 0) ? (float)size / frameSize / freq : 0f;
+    }
+
+    /**
+     * Uploads this sound into the given buffer.  Must be called on the thread
+     * that has the OpenAL context current.
+     *
+     * @param al     AL instance.
+     * @param buffer Buffer ID.
+     */
+    public void upload(AL al, int buffer) {
+
+        al.alBufferData(buffer, format, data, size, freq);
+    }
+
+    /**
+     * Returns pooled sample data to the {@link DirectBufferPool}.  Call this
+     * once the sound has been uploaded and won't be used again; it does
+     * nothing for mapped or heap data.
+     */
+    public synchronized void recycle() {
+
+        if (pooled != null) {
+            DirectBufferPool.getShared().release(pooled);
+            pooled = null;
+        }
+    }
+}
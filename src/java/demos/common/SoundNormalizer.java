@@ -0,0 +1,144 @@
+package demos.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALC;
+import net.java.games.joal.ALCdevice;
+
+/**
+ * Converts sounds for positional sources to 16 bit mono at the device's
+ * output rate when they're loaded.  Stereo sounds can't be spatialized and
+ * cost twice the mixing work, and a rate mismatch makes the mixer resample
+ * every voice on every update; doing both once up front removes that work
+ * from playback.
+ * <p>
+ * The conversion runs over whole float arrays in simple, branch-free loops,
+ * which the JIT can unroll and, for the downmix and filter, vectorize.
+ */
+public class SoundNormalizer {
+
+    /**
+     * Queries the output rate of a device.
+     *
+     * @param alc    ALC instance.
+     * @param device The device.
+     * @return The rate in Hz, or 0 if the device doesn't report it.
+     */
+    public static int getDeviceRate(ALC alc, ALCdevice device) {
+
+        int[] rate = new int[1];
+        alc.alcGetIntegerv(device, ALC.ALC_FREQUENCY, 1, rate, 0);
+        return rate[0];
+    }
+
+    /**
+     * Converts a sound to 16 bit mono at the given rate.  Sounds that already
+     * match are returned as they are; otherwise the result lives in a pooled
+     * buffer and the original is {@link SoundData#recycle recycled}.
+     *
+     * @param pcm  The sound.
+     * @param rate Target sample rate in Hz.
+     * @return The converted sound.
+     */
+    public static SoundData normalize(SoundData pcm, int rate) {
+
+        if (pcm.format == AL.AL_FORMAT_MONO16 && pcm.freq == rate) {
+            return pcm;
+        }
+
+        float[] mono = toMono(pcm);
+        pcm.recycle();
+        float[] resampled = (pcm.freq == rate) ? mono : resample(mono, pcm.freq, rate);
+
+        int size = resampled.length * 2;
+        ByteBuffer data = DirectBufferPool.getShared().acquire(size);
+        ByteBuffer out = data.duplicate().order(ByteOrder.nativeOrder());
+        for (int i = 0; i < resampled.length; i++) {
+            float s = resampled[i];
+            s = s < -32768f ? -32768f : (s > 32767f ? 32767f : s);
+            out.putShort(i * 2, (short)s);
+        }
+        return new SoundData(AL.AL_FORMAT_MONO16, data, size, rate, data);
+    }
+
+    /**
+     * Reads 8 or 16 bit mono or stereo PCM as mono floats in the 16 bit range.
+     */
+    static float[] toMono(SoundData pcm) {
+
+        boolean stereo = pcm.format == AL.AL_FORMAT_STEREO8 || pcm.format == AL.AL_FORMAT_STEREO16;
+        boolean eightBit = pcm.format == AL.AL_FORMAT_MONO8 || pcm.format == AL.AL_FORMAT_STEREO8;
+        int channels = stereo ? 2 : 1;
+        int samples = pcm.size / (eightBit ? 1 : 2);
+        float[] interleaved = new float[samples];
+
+        ByteBuffer in = pcm.data.duplicate().order(ByteOrder.nativeOrder());
+        if (eightBit) {
+            for (int i = 0; i < samples; i++) {
+                interleaved[i] = ((in.get(i) & 0xff) - 128) * 256f;
+            }
+        }
+        else {
+            for (int i = 0; i < samples; i++) {
+                interleaved[i] = in.getShort(i * 2);
+            }
+        }
+        if (channels == 1) {
+            return interleaved;
+        }
+
+        float[] mono = new float[samples / 2];
+        for (int i = 0; i < mono.length; i++) {
+            mono[i] = (interleaved[2 * i] + interleaved[2 * i + 1]) * 0.5f;
+        }
+        return mono;
+    }
+
+    /**
+     * Linear-interpolation resampler.  When downsampling, a simple box filter
+     * over the step width is applied first to limit aliasing.
+     */
+    static float[] resample(float[] in, int inRate, int outRate) {
+
+        if (in.length == 0) {
+            return in;
+        }
+        if (outRate < inRate) {
+            in = boxFilter(in, (inRate + outRate - 1) / outRate);
+        }
+
+        int outLength = (int)((long)in.length * outRate / inRate);
+        float[] out = new float[outLength];
+        double step = (double)inRate / outRate;
+        int last = in.length - 1;
+
+        for (int i = 0; i < outLength; i++) {
+            double pos = i * step;
+            int i0 = (int)pos;
+            int i1 = Math.min(i0 + 1, last);
+            float frac = (float)(pos - i0);
+            out[i] = in[i0] + (in[i1] - in[i0]) * frac;
+        }
+        return out;
+    }
+
+    private static float[] boxFilter(float[] in, int width) {
+
+        if (width <= 1) {
+            return in;
+        }
+        float[] out = new float[in.length];
+        float scale = 1f / width;
+        float sum = 0f;
+        for (int i = 0; i < in.length; i++) {
+            sum += in[i];
+            if (i >= width) {
+                sum -= in[i - width];
+            }
+            out[i] = sum * scale;
+        }
+        return out;
+    }
+}
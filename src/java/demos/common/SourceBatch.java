@@ -0,0 +1,360 @@
+package demos.common;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALC;
+import net.java.games.joal.ALCcontext;
+
+/**
+ * Collects position, velocity and gain changes for many sources and applies
+ * them together.  The values live in flat arrays, three floats per source for
+ * vectors, and are handed to <code>alSourcefv</code> at an offset, so nothing
+ * is copied or allocated per update and each attribute is sent at most once
+ * per commit no matter how often it changed in between.
+ * <p>
+ * {@link #commit} wraps the updates in <code>alcSuspendContext</code> /
+ * <code>alcProcessContext</code>, so implementations that honour suspension
+ * apply the whole frame's changes at once instead of mixing some of them
+ * into one update and the rest into the next.
+ * <p>
+ * The batch also shadows the values it last sent, for the sources and the
+ * listener, and drops updates that are equal to them or within an
+ * {@link #setEpsilon epsilon}, so the traffic per frame follows what
+ * actually changed rather than what the caller re-sent.  Small changes
+ * aren't lost: they're compared against the last value sent, so they add
+ * up until they cross the epsilon.
+ * <p>
+ * A batch must be used on the thread that has its context current.
+ */
+public class SourceBatch {
+
+    private static final int POSITION = 1;
+    private static final int VELOCITY = 2;
+    private static final int GAIN     = 4;
+
+    // Listener attributes, in their own dirty mask
+    private static final int ORIENTATION = 8;
+
+    private final AL al;
+    private final ALC alc;
+
+    private int count = 0;
+    private int[] sources;
+    private int[] dirty;
+    private float[] position;
+    private float[] velocity;
+    private float[] gain;
+
+    // The values last sent, and which of them have been sent at all
+    private int[] sent;
+    private float[] sentPosition;
+    private float[] sentVelocity;
+    private float[] sentGain;
+
+    private int listenerDirty = 0;
+    private int listenerSent = 0;
+    private final float[] listener = new float[13];      // position, velocity, orientation, gain
+    private final float[] sentListener = new float[13];
+
+    private float epsilon = 0f;
+    private int dirtyCount = 0;
+    private int[] dirtyList;
+
+    private long commits = 0;
+    private long calls = 0;
+    private long suppressed = 0;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param al  AL instance.
+     * @param alc ALC instance, to suspend the current context during commits.
+     */
+    public SourceBatch(AL al, ALC alc) {
+
+        this.al = al;
+        this.alc = alc;
+        allocate(16);
+    }
+
+    /**
+     * Adds a source to the batch.
+     *
+     * @param source Source name.
+     * @return The index of the source in the batch, for the setters.
+     */
+    public int add(int source) {
+
+        if (count == sources.length) {
+            allocate(count * 2);
+        }
+        sources[count] = source;
+        dirty[count] = 0;
+        sent[count] = 0;
+        gain[count] = 1.0f;
+        return count++;
+    }
+
+    /**
+     * @return The number of sources in the batch.
+     */
+    public int size() {
+
+        return count;
+    }
+
+    /**
+     * @return The source name at an index.
+     */
+    public int getSource(int index) {
+
+        return sources[index];
+    }
+
+    /**
+     * Sets the position of a source, applied on the next {@link #commit}.
+     */
+    public void setPosition(int index, float x, float y, float z) {
+
+        int i = index * 3;
+        position[i] = x;
+        position[i + 1] = y;
+        position[i + 2] = z;
+        mark(index, POSITION);
+    }
+
+    /**
+     * Sets the velocity of a source, applied on the next {@link #commit}.
+     */
+    public void setVelocity(int index, float x, float y, float z) {
+
+        int i = index * 3;
+        velocity[i] = x;
+        velocity[i + 1] = y;
+        velocity[i + 2] = z;
+        mark(index, VELOCITY);
+    }
+
+    /**
+     * Sets the gain of a source, applied on the next {@link #commit}.
+     */
+    public void setGain(int index, float value) {
+
+        gain[index] = value;
+        mark(index, GAIN);
+    }
+
+    /**
+     * Sets the listener position, applied on the next {@link #commit}.
+     */
+    public void setListenerPosition(float x, float y, float z) {
+
+        listener[0] = x;
+        listener[1] = y;
+        listener[2] = z;
+        listenerDirty |= POSITION;
+    }
+
+    /**
+     * Sets the listener velocity, applied on the next {@link #commit}.
+     */
+    public void setListenerVelocity(float x, float y, float z) {
+
+        listener[3] = x;
+        listener[4] = y;
+        listener[5] = z;
+        listenerDirty |= VELOCITY;
+    }
+
+    /**
+     * Sets the listener orientation as "at" and "up" vectors, applied on the
+     * next {@link #commit}.
+     */
+    public void setListenerOrientation(float[] orientation, int offset) {
+
+        System.arraycopy(orientation, offset, listener, 6, 6);
+        listenerDirty |= ORIENTATION;
+    }
+
+    /**
+     * Sets the listener gain, applied on the next {@link #commit}.
+     */
+    public void setListenerGain(float value) {
+
+        listener[12] = value;
+        listenerDirty |= GAIN;
+    }
+
+    /**
+     * Sets how far a value has to move from the one last sent before it's
+     * sent again.  The default of 0 only drops exact repeats.
+     */
+    public void setEpsilon(float epsilon) {
+
+        this.epsilon = epsilon;
+    }
+
+    public float getEpsilon() {
+
+        return epsilon;
+    }
+
+    /**
+     * Applies all pending changes in one pass while the context is suspended.
+     */
+    public void commit() {
+
+        if (dirtyCount == 0 && listenerDirty == 0) {
+            return;
+        }
+
+        ALCcontext context = alc.alcGetCurrentContext();
+        alc.alcSuspendContext(context);
+        try {
+            for (int d = 0; d < dirtyCount; d++) {
+                int index = dirtyList[d];
+                int source = sources[index];
+                int flags = dirty[index];
+                if ((flags & POSITION) != 0) {
+                    if (changed(sent[index], POSITION, position, sentPosition, index * 3, 3)) {
+                        al.alSourcefv(source, AL.AL_POSITION, position, index * 3);
+                        sent[index] |= POSITION;
+                    }
+                }
+                if ((flags & VELOCITY) != 0) {
+                    if (changed(sent[index], VELOCITY, velocity, sentVelocity, index * 3, 3)) {
+                        al.alSourcefv(source, AL.AL_VELOCITY, velocity, index * 3);
+                        sent[index] |= VELOCITY;
+                    }
+                }
+                if ((flags & GAIN) != 0) {
+                    if (changed(sent[index], GAIN, gain, sentGain, index, 1)) {
+                        al.alSourcef(source, AL.AL_GAIN, gain[index]);
+                        sent[index] |= GAIN;
+                    }
+                }
+                dirty[index] = 0;
+            }
+            dirtyCount = 0;
+
+            if ((listenerDirty & POSITION) != 0 && changed(listenerSent, POSITION, listener, sentListener, 0, 3)) {
+                al.alListenerfv(AL.AL_POSITION, listener, 0);
+                listenerSent |= POSITION;
+            }
+            if ((listenerDirty & VELOCITY) != 0 && changed(listenerSent, VELOCITY, listener, sentListener, 3, 3)) {
+                al.alListenerfv(AL.AL_VELOCITY, listener, 3);
+                listenerSent |= VELOCITY;
+            }
+            if ((listenerDirty & ORIENTATION) != 0 && changed(listenerSent, ORIENTATION, listener, sentListener, 6, 6)) {
+                al.alListenerfv(AL.AL_ORIENTATION, listener, 6);
+                listenerSent |= ORIENTATION;
+            }
+            if ((listenerDirty & GAIN) != 0 && changed(listenerSent, GAIN, listener, sentListener, 12, 1)) {
+                al.alListenerf(AL.AL_GAIN, listener[12]);
+                listenerSent |= GAIN;
+            }
+            listenerDirty = 0;
+        }
+        finally {
+            alc.alcProcessContext(context);
+        }
+        commits++;
+    }
+
+    /**
+     * @return The number of commits that had something to apply.
+     */
+    public long getCommits() {
+
+        return commits;
+    }
+
+    /**
+     * @return The number of attribute updates sent to OpenAL.
+     */
+    public long getCalls() {
+
+        return calls;
+    }
+
+    /**
+     * @return The number of updates dropped because they didn't change
+     *         anything beyond the epsilon.
+     */
+    public long getSuppressed() {
+
+        return suppressed;
+    }
+
+    /**
+     * @return The fraction of updates that were dropped, between 0 and 1.
+     */
+    public double getSuppressionRatio() {
+
+        long total = calls + suppressed;
+        return (total == 0) ? 0.0 : (double)suppressed / total;
+    }
+
+    /**
+     * Checks an attribute against the value last sent, updating the shadow
+     * copy and the counters.
+     */
+    private boolean changed(int sentFlags, int flag, float[] values, float[] shadow, int offset, int length) {
+
+        boolean send = (sentFlags & flag) == 0;
+        for (int i = offset; !send && i < offset + length; i++) {
+            send = Math.abs(values[i] - shadow[i]) > epsilon;
+        }
+        if (send) {
+            System.arraycopy(values, offset, shadow, offset, length);
+            calls++;
+        }
+        else {
+            suppressed++;
+        }
+        return send;
+    }
+
+    private void mark(int index, int flag) {
+
+        if (dirty[index] == 0) {
+            dirtyList[dirtyCount++] = index;
+        }
+        dirty[index] |= flag;
+    }
+
+    private void allocate(int size) {
+
+        int[] s = new int[size];
+        int[] d = new int[size];
+        int[] l = new int[size];
+        float[] p = new float[size * 3];
+        float[] v = new float[size * 3];
+        float[] g = new float[size];
+        int[] sf = new int[size];
+        float[] sp = new float[size * 3];
+        float[] sv = new float[size * 3];
+        float[] sg = new float[size];
+        if (sources != null) {
+            System.arraycopy(sent, 0, sf, 0, count);
+            System.arraycopy(sentPosition, 0, sp, 0, count * 3);
+            System.arraycopy(sentVelocity, 0, sv, 0, count * 3);
+            System.arraycopy(sentGain, 0, sg, 0, count);
+            System.arraycopy(sources, 0, s, 0, count);
+            System.arraycopy(dirty, 0, d, 0, count);
+            System.arraycopy(dirtyList, 0, l, 0, dirtyCount);
+            System.arraycopy(position, 0, p, 0, count * 3);
+            System.arraycopy(velocity, 0, v, 0, count * 3);
+            System.arraycopy(gain, 0, g, 0, count);
+        }
+        sources = s;
+        dirty = d;
+        dirtyList = l;
+        position = p;
+        velocity = v;
+        gain = g;
+        sent = sf;
+        sentPosition = sp;
+        sentVelocity = sv;
+        sentGain = sg;
+    }
+}
@@ -0,0 +1,166 @@
+package demos.common;
+
+import net.java.games.joal.AL;
+
+/**
+ * Notifies listeners when sources stop playing.  Rather than every caller
+ * polling its own source, all watched sources are kept in one flat list and
+ * checked in a single pass per {@link #poll}, so thousands of pending
+ * one-shots cost one loop per poll and no allocation.
+ * <p>
+ * {@link #poll} can be called from an existing update loop, or the monitor
+ * added as a task to the {@link AudioScheduler} of the thread that has the
+ * OpenAL context current; it never polls on a thread of its own.  Listeners
+ * run on the polling thread.
+ * <p>
+ * A source counts as stopped once it's neither playing nor paused, so watch
+ * a source only after <code>alSourcePlay</code>.
+ */
+public class SourceMonitor implements AudioScheduler.Task {
+
+    /**
+     * Receives completion notifications.
+     */
+    public interface Listener {
+
+        /**
+         * @param source The source that stopped.
+         */
+        void stopped(int source);
+    }
+
+    private final AL al;
+
+    private int count = 0;
+    private int[] sources = new int[16];
+    private Listener[] listeners = new Listener[16];
+
+    // Completed entries are moved here so listeners run outside the lock
+    private int[] doneSources = new int[16];
+    private Listener[] doneListeners = new Listener[16];
+
+    private final int[] state = new int[1];
+    private final Object pollLock = new Object();
+
+    /**
+     * @param al AL instance.
+     */
+    public SourceMonitor(AL al) {
+
+        this.al = al;
+    }
+
+    /**
+     * Watches a source.
+     *
+     * @param source   Source name.
+     * @param listener Notified once, when the source stops.
+     */
+    public synchronized void watch(int source, Listener listener) {
+
+        if (count == sources.length) {
+            int[] s = new int[count * 2];
+            Listener[] l = new Listener[count * 2];
+            System.arraycopy(sources, 0, s, 0, count);
+            System.arraycopy(listeners, 0, l, 0, count);
+            sources = s;
+            listeners = l;
+        }
+        sources[count] = source;
+        listeners[count] = listener;
+        count++;
+    }
+
+    /**
+     * Stops watching a source without notifying its listeners.
+     */
+    public synchronized void cancel(int source) {
+
+        for (int i = count - 1; i >= 0; i--) {
+            if (sources[i] == source) {
+                removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * @return The number of sources being watched.
+     */
+    public synchronized int size() {
+
+        return count;
+    }
+
+    /**
+     * Checks every watched source once and notifies the listeners of those
+     * that have stopped.
+     */
+    public void poll() {
+
+        synchronized (pollLock) {
+            int done = 0;
+            synchronized (this) {
+                for (int i = count - 1; i >= 0; i--) {
+                    al.alGetSourcei(sources[i], AL.AL_SOURCE_STATE, state, 0);
+                    if (state[0] != AL.AL_PLAYING && state[0] != AL.AL_PAUSED) {
+                        if (done == doneSources.length) {
+                            int[] s = new int[done * 2];
+                            Listener[] l = new Listener[done * 2];
+                            System.arraycopy(doneSources, 0, s, 0, done);
+                            System.arraycopy(doneListeners, 0, l, 0, done);
+                            doneSources = s;
+                            doneListeners = l;
+                        }
+                        doneSources[done] = sources[i];
+                        doneListeners[done] = listeners[i];
+                        done++;
+                        removeAt(i);
+                    }
+                }
+            }
+
+            for (int i = 0; i < done; i++) {
+                Listener listener = doneListeners[i];
+                doneListeners[i] = null;
+                listener.stopped(doneSources[i]);
+            }
+        }
+    }
+
+    /**
+     * Polls; lets the monitor be added to an {@link AudioScheduler} run by
+     * the thread that has the OpenAL context current.
+     */
+    public void tick(long tick, float seconds) {
+
+        poll();
+    }
+
+    /**
+     * Blocks until a source stops, polling every watched source on the
+     * calling thread, which must have the OpenAL context current.  The
+     * listeners of other sources that stop meanwhile are notified too.
+     *
+     * @param source Source name, already playing.
+     * @param rate   Polls per second.
+     */
+    public void waitFor(int source, float rate) {
+
+        final AudioScheduler scheduler = new AudioScheduler(rate);
+        watch(source, new Listener() {
+            public void stopped(int s) {
+                scheduler.stop();
+            }
+        });
+        scheduler.add(this);
+        scheduler.run();
+    }
+
+    private void removeAt(int i) {
+
+        count--;
+        sources[i] = sources[count];
+        listeners[i] = listeners[count];
+        listeners[count] = null;
+    }
+}
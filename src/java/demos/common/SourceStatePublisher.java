@@ -0,0 +1,95 @@
+package demos.common;
+
+import net.java.games.joal.AL;
+
+/**
+ * Publishes a {@link SourceStates} snapshot of a set of sources once per tick.
+ * The audio thread reads every source in one pass and swaps the result in
+ * through a single volatile reference, so dashboards and game logic on
+ * other threads can ask what's playing without a JNI round trip or any
+ * locking, and always see a consistent set of values.
+ * <p>
+ * Everything but {@link #get} must be called on the audio thread.  The
+ * publisher is a tick task; add it to an {@link AudioScheduler} or
+ * {@link AudioThread} after any task that changes the sources.
+ */
+public class SourceStatePublisher implements AudioScheduler.Task {
+
+    private final AL al;
+    private int count = 0;
+    private int[] sources = new int[16];
+    private final int[] state = new int[1];
+    private final float[] value = new float[1];
+    private volatile SourceStates current = SourceStates.EMPTY;
+
+    /**
+     * @param al AL instance.
+     */
+    public SourceStatePublisher(AL al) {
+
+        this.al = al;
+    }
+
+    /**
+     * Includes a source in the snapshots, starting with the next one.
+     */
+    public void add(int source) {
+
+        if (count == sources.length) {
+            int[] s = new int[count * 2];
+            System.arraycopy(sources, 0, s, 0, count);
+            sources = s;
+        }
+        sources[count++] = source;
+    }
+
+    /**
+     * Leaves a source out of the snapshots, starting with the next one.
+     */
+    public void remove(int source) {
+
+        for (int i = 0; i < count; i++) {
+            if (sources[i] == source) {
+                System.arraycopy(sources, i + 1, sources, i, count - i - 1);
+                count--;
+                return;
+            }
+        }
+    }
+
+    public void tick(long tick, float seconds) {
+
+        publish(tick);
+    }
+
+    /**
+     * Takes a snapshot of the sources and publishes it.
+     *
+     * @param tick Tick number to record in the snapshot.
+     */
+    public void publish(long tick) {
+
+        int[] s = new int[count];
+        int[] states = new int[count];
+        float[] offsets = new float[count];
+        float[] gains = new float[count];
+        System.arraycopy(sources, 0, s, 0, count);
+        for (int i = 0; i < count; i++) {
+            al.alGetSourcei(s[i], AL.AL_SOURCE_STATE, state, 0);
+            states[i] = state[0];
+            al.alGetSourcef(s[i], AL.AL_SEC_OFFSET, value, 0);
+            offsets[i] = value[0];
+            al.alGetSourcef(s[i], AL.AL_GAIN, value, 0);
+            gains[i] = value[0];
+        }
+        current = new SourceStates(tick, System.nanoTime(), s, states, offsets, gains);
+    }
+
+    /**
+     * @return The latest snapshot; may be called from any thread.
+     */
+    public SourceStates get() {
+
+        return current;
+    }
+}
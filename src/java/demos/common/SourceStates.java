@@ -0,0 +1,120 @@
+package demos.common;
+
+import net.java.games.joal.AL;
+
+/**
+ * An immutable snapshot of the state, offset and gain of a set of sources,
+ * taken on the audio thread by a {@link SourceStatePublisher}.  Any thread
+ * can read a snapshot without calling OpenAL.
+ */
+public final class SourceStates {
+
+    /** A snapshot of no sources, published before the first tick. */
+    public static final SourceStates EMPTY = new SourceStates(0L, 0L, new int[0], new int[0], new float[0], new float[0]);
+
+    private final long tick;
+    private final long time;
+    private final int[] sources;
+    private final int[] states;
+    private final float[] offsets;
+    private final float[] gains;
+
+    SourceStates(long tick, long time, int[] sources, int[] states, float[] offsets, float[] gains) {
+
+        this.tick = tick;
+        this.time = time;
+        this.sources = sources;
+        this.states = states;
+        this.offsets = offsets;
+        this.gains = gains;
+    }
+
+    /**
+     * @return The number of the tick the snapshot was taken on.
+     */
+    public long getTick() {
+
+        return tick;
+    }
+
+    /**
+     * @return When the snapshot was taken, in <code>System.nanoTime</code>
+     *         units.
+     */
+    public long getTime() {
+
+        return time;
+    }
+
+    /**
+     * @return The number of sources in the snapshot.
+     */
+    public int size() {
+
+        return sources.length;
+    }
+
+    public int getSource(int index) {
+
+        return sources[index];
+    }
+
+    /**
+     * @return <code>AL_INITIAL</code>, <code>AL_PLAYING</code>,
+     *         <code>AL_PAUSED</code> or <code>AL_STOPPED</code>.
+     */
+    public int getState(int index) {
+
+        return states[index];
+    }
+
+    /**
+     * @return The playback position in seconds.
+     */
+    public float getOffset(int index) {
+
+        return offsets[index];
+    }
+
+    public float getGain(int index) {
+
+        return gains[index];
+    }
+
+    /**
+     * @return The index of a source in the snapshot, or -1.
+     */
+    public int indexOf(int source) {
+
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] == source) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return <code>true</code> if the source was playing when the snapshot
+     *         was taken.
+     */
+    public boolean isPlaying(int source) {
+
+        int i = indexOf(source);
+        return i >= 0 && states[i] == AL.AL_PLAYING;
+    }
+
+    /**
+     * @return The number of sources that were playing.
+     */
+    public int countPlaying() {
+
+        int count = 0;
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == AL.AL_PLAYING) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,448 @@
+package demos.common;
+
+import java.util.Arrays;
+
+import net.java.games.joal.AL;
+
+/**
+ * Plays sounds from a {@link SoundBank} on a fixed pool of OpenAL sources.
+ * The pool is allocated up front, so running out of sources never fails a
+ * request: every voice gets a score from its priority and its estimated
+ * gain at the listener, and when the pool is exhausted the lowest scoring
+ * voice loses its source to a better one.
+ * <p>
+ * A voice without a source keeps running as a <i>virtual</i> voice: its
+ * playback position advances with the clock, non-looping voices still end on
+ * time, and as soon as a source is free (or the voice outscores a real one)
+ * it's bound again and resumes at the position it would have reached.
+ * <p>
+ * With a {@link #setLodManager LodManager} real voices are bound to the
+ * reduced-rate variant that suits their distance, and moved between
+ * variants as they or the listener move.
+ * <p>
+ * Voices are identified by handles that include a generation count, so a
+ * stale handle for a voice that has ended never affects a newer one.  All
+ * methods must be called on the thread that has the OpenAL context current,
+ * with {@link #update} called regularly.
+ */
+public class VoiceManager {
+
+    private static final int FREE    = 0;
+    private static final int REAL    = 1;
+    private static final int VIRTUAL = 2;
+
+    private final AL al;
+    private final SoundBank bank;
+    private LodManager lod;
+
+    // The source pool; sourceVoice is the voice index using each source, or -1
+    private final int[] pool;
+    private final int[] sourceVoice;
+
+    private float referenceDistance = 1.0f;
+    private float rolloffFactor = 1.0f;
+
+    // Voices, as parallel arrays indexed by the low 16 bits of a handle
+    private int capacity = 0;
+    private int[] state = new int[0];
+    private int[] generation = new int[0];
+    private int[] slot = new int[0];
+    private int[] priority = new int[0];
+    private int[] source = new int[0];           // index into pool, or -1
+    private boolean[] looping = new boolean[0];
+    private float[] gain = new float[0];
+    private float[] duration = new float[0];     // seconds
+    private float[] offset = new float[0];       // seconds, for virtual voices
+    private float[] score = new float[0];
+    private float[][] position = new float[0][];
+
+    private long lastUpdate = System.nanoTime();
+    private int steals = 0;
+
+    // Scratch for source queries
+    private final int[] sourceState = new int[1];
+    private final float[] secOffset = new float[1];
+
+    /**
+     * Creates the voice manager and its source pool.  If the implementation
+     * can't provide <code>maxSources</code> sources the pool is smaller.
+     *
+     * @param al         AL instance.
+     * @param bank       Bank that provides the sounds.
+     * @param maxSources Number of sources to allocate.
+     */
+    public VoiceManager(AL al, SoundBank bank, int maxSources) {
+
+        this.al = al;
+        this.bank = bank;
+
+        int[] ids = new int[maxSources];
+        int allocated = 0;
+        al.alGetError();
+        while (allocated < maxSources) {
+            al.alGenSources(1, ids, allocated);
+            if (al.alGetError() != AL.AL_NO_ERROR) {
+                break;
+            }
+            allocated++;
+        }
+        pool = new int[allocated];
+        System.arraycopy(ids, 0, pool, 0, allocated);
+        sourceVoice = new int[allocated];
+        Arrays.fill(sourceVoice, -1);
+    }
+
+    /**
+     * Sets the distance model parameters used to estimate audibility, if they
+     * differ from OpenAL's defaults of 1.
+     */
+    public void setDistanceModel(float referenceDistance, float rolloffFactor) {
+
+        this.referenceDistance = referenceDistance;
+        this.rolloffFactor = rolloffFactor;
+        if (lod != null) {
+            lod.setDistanceModel(referenceDistance, rolloffFactor);
+        }
+    }
+
+    /**
+     * Plays distant voices from reduced-rate variants.  Voices that are
+     * already playing keep their variant until the next {@link #update}.
+     *
+     * @param lod Manager for this voice manager's bank, or <code>null</code>
+     *            to play every voice at full rate again from its next bind.
+     */
+    public void setLodManager(LodManager lod) {
+
+        for (int v = 0; v < capacity; v++) {
+            if (state[v] == REAL) {
+                int id = pool[source[v]];
+                int level = 0;
+                if (this.lod != null) {
+                    level = Math.max(this.lod.getLevel(id), 0);
+                    this.lod.unmanage(id);
+                }
+                if (lod != null) {
+                    lod.manage(id, slot[v], position[v], gain[v], level);
+                }
+            }
+        }
+        this.lod = lod;
+        if (lod != null) {
+            lod.setDistanceModel(referenceDistance, rolloffFactor);
+        }
+    }
+
+    /**
+     * @return The number of sources in the pool.
+     */
+    public int getPoolSize() {
+
+        return pool.length;
+    }
+
+    /**
+     * @return The source name at an index of the pool.
+     */
+    public int getPoolSource(int index) {
+
+        return pool[index];
+    }
+
+    /**
+     * @return The number of times a voice lost its source to a better one.
+     */
+    public int getSteals() {
+
+        return steals;
+    }
+
+    /**
+     * Starts a voice.
+     *
+     * @param slot        Slot index in the bank.
+     * @param prio        Priority; higher priorities always win over lower ones.
+     * @param pos         Position of the voice; read on every {@link #update},
+     *                    so the caller can keep moving it.
+     * @param voiceGain   Gain of the voice.
+     * @param loop        Whether the voice loops.
+     * @param listenerPos Listener position, to judge audibility.
+     * @return The voice handle.
+     */
+    public int play(int slot, int prio, float[] pos, float voiceGain, boolean loop, float[] listenerPos) {
+
+        int v = allocateVoice();
+        state[v] = VIRTUAL;
+        this.slot[v] = slot;
+        priority[v] = prio;
+        position[v] = pos;
+        gain[v] = voiceGain;
+        looping[v] = loop;
+        offset[v] = 0f;
+        source[v] = -1;
+        duration[v] = bank.getDuration(slot);
+        score[v] = score(v, listenerPos);
+
+        int s = freeSource();
+        if (s < 0) {
+            int victim = lowestReal();
+            if (victim >= 0 && score[victim] < score[v]) {
+                s = source[victim];
+                virtualize(victim);
+                steals++;
+            }
+        }
+        if (s >= 0) {
+            bind(v, s, listenerPos);
+        }
+        return handle(v);
+    }
+
+    /**
+     * Stops a voice and frees its source.
+     *
+     * @param handle Voice handle; ignored if the voice has already ended.
+     */
+    public void stop(int handle) {
+
+        int v = voice(handle);
+        if (v >= 0) {
+            end(v);
+        }
+    }
+
+    /**
+     * @param handle Voice handle.
+     * @return <code>true</code> if the voice is still playing, really or
+     *         virtually.
+     */
+    public boolean isActive(int handle) {
+
+        return voice(handle) >= 0;
+    }
+
+    /**
+     * @param handle Voice handle.
+     * @return <code>true</code> if the voice currently has no source.
+     */
+    public boolean isVirtual(int handle) {
+
+        int v = voice(handle);
+        return v >= 0 && state[v] == VIRTUAL;
+    }
+
+    /**
+     * Advances virtual voices, reaps finished ones, hands free or stolen
+     * sources to the best scoring virtual voices and, with a
+     * {@link #setLodManager LodManager}, moves real voices between variants.
+     *
+     * @param listenerPos Listener position.
+     */
+    public void update(float[] listenerPos) {
+
+        long now = System.nanoTime();
+        float elapsed = (now - lastUpdate) / 1e9f;
+        lastUpdate = now;
+
+        for (int v = 0; v < capacity; v++) {
+            if (state[v] == REAL) {
+                al.alGetSourcei(pool[source[v]], AL.AL_SOURCE_STATE, sourceState, 0);
+                if (sourceState[0] == AL.AL_STOPPED) {
+                    end(v);
+                    continue;
+                }
+            }
+            else if (state[v] == VIRTUAL) {
+                offset[v] += elapsed;
+                if (offset[v] >= duration[v]) {
+                    if (!looping[v]) {
+                        end(v);
+                        continue;
+                    }
+                    offset[v] = (duration[v] > 0) ? offset[v] % duration[v] : 0f;
+                }
+            }
+            if (state[v] != FREE) {
+                score[v] = score(v, listenerPos);
+            }
+        }
+
+        // Promote the best virtual voices while they can get a source
+        while (true) {
+            int best = highestVirtual();
+            if (best < 0) {
+                break;
+            }
+            int s = freeSource();
+            if (s < 0) {
+                int victim = lowestReal();
+                if (victim < 0 || score[victim] >= score[best]) {
+                    break;
+                }
+                s = source[victim];
+                virtualize(victim);
+                steals++;
+            }
+            bind(best, s, listenerPos);
+        }
+
+        if (lod != null) {
+            lod.update(listenerPos);
+        }
+    }
+
+    /**
+     * Stops every voice and deletes the source pool.
+     */
+    public void release() {
+
+        for (int v = 0; v < capacity; v++) {
+            if (state[v] != FREE) {
+                end(v);
+            }
+        }
+        al.alDeleteSources(pool.length, pool, 0);
+    }
+
+    private float score(int v, float[] listenerPos) {
+
+        float audibility = DistanceModel.audibility(gain[v], position[v], listenerPos,
+                                                    referenceDistance, rolloffFactor);
+
+        // Priority dominates; audibility (0..1 for sane gains) breaks ties
+        return priority[v] + Math.min(audibility, 0.999f);
+    }
+
+    /**
+     * Starts a voice on a pool source, at its current position.
+     */
+    private void bind(int v, int s, float[] listenerPos) {
+
+        int id = pool[s];
+        int level = 0;
+        if (lod != null) {
+            level = lod.selectLevel(position[v], gain[v], listenerPos);
+        }
+        bank.bind(id, slot[v], level);
+        al.alSourcef (id, AL.AL_PITCH,    1.0f);
+        al.alSourcef (id, AL.AL_GAIN,     gain[v]);
+        al.alSourcefv(id, AL.AL_POSITION, position[v], 0);
+        al.alSourcei (id, AL.AL_LOOPING,  looping[v] ? AL.AL_TRUE : AL.AL_FALSE);
+        al.alSourcef (id, AL.AL_SEC_OFFSET, offset[v]);
+        al.alSourcePlay(id);
+
+        sourceVoice[s] = v;
+        source[v] = s;
+        state[v] = REAL;
+        if (lod != null) {
+            lod.manage(id, slot[v], position[v], gain[v], level);
+        }
+    }
+
+    /**
+     * Takes a voice's source away, remembering where it was.
+     */
+    private void virtualize(int v) {
+
+        al.alGetSourcef(pool[source[v]], AL.AL_SEC_OFFSET, secOffset, 0);
+        offset[v] = secOffset[0];
+        releaseSource(v);
+        state[v] = VIRTUAL;
+    }
+
+    private void end(int v) {
+
+        if (state[v] == REAL) {
+            releaseSource(v);
+        }
+        state[v] = FREE;
+        position[v] = null;
+        // Handles keep 16 bits of the generation
+        generation[v] = (generation[v] + 1) & 0xffff;
+    }
+
+    private void releaseSource(int v) {
+
+        int s = source[v];
+        if (lod != null) {
+            lod.unmanage(pool[s]);
+        }
+        al.alSourceStop(pool[s]);
+        bank.unbind(pool[s]);
+        al.alSourcei(pool[s], AL.AL_BUFFER, 0);
+        sourceVoice[s] = -1;
+        source[v] = -1;
+    }
+
+    private int freeSource() {
+
+        for (int s = 0; s < pool.length; s++) {
+            if (sourceVoice[s] < 0) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    private int lowestReal() {
+
+        int lowest = -1;
+        for (int v = 0; v < capacity; v++) {
+            if (state[v] == REAL && (lowest < 0 || score[v] < score[lowest])) {
+                lowest = v;
+            }
+        }
+        return lowest;
+    }
+
+    private int highestVirtual() {
+
+        int highest = -1;
+        for (int v = 0; v < capacity; v++) {
+            if (state[v] == VIRTUAL && (highest < 0 || score[v] > score[highest])) {
+                highest = v;
+            }
+        }
+        return highest;
+    }
+
+    private int handle(int v) {
+
+        return (generation[v] << 16) | v;
+    }
+
+    private int voice(int handle) {
+
+        int v = handle & 0xffff;
+        return (v < capacity && state[v] != FREE && generation[v] == (handle >>> 16)) ? v : -1;
+    }
+
+    private int allocateVoice() {
+
+        for (int v = 0; v < capacity; v++) {
+            if (state[v] == FREE) {
+                return v;
+            }
+        }
+        if (capacity == 0xffff) {
+            throw new IllegalStateException("Too many voices");
+        }
+
+        int size = Math.min(Math.max(16, capacity * 2), 0xffff);
+        state = ParallelArrays.grow(state, size);
+        generation = ParallelArrays.grow(generation, size);
+        slot = ParallelArrays.grow(slot, size);
+        priority = ParallelArrays.grow(priority, size);
+        source = ParallelArrays.grow(source, size);
+        looping = ParallelArrays.grow(looping, size);
+        gain = ParallelArrays.grow(gain, size);
+        duration = ParallelArrays.grow(duration, size);
+        offset = ParallelArrays.grow(offset, size);
+        score = ParallelArrays.grow(score, size);
+        position = ParallelArrays.grow(position, size);
+
+        int v = capacity;
+        capacity = size;
+        return v;
+    }
+}
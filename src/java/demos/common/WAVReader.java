@@ -0,0 +1,344 @@
+package demos.common;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import net.java.games.joal.AL;
+
+/**
+ * Reads RIFF/WAVE files without copying the sample data through the Java
+ * heap.  Files are memory-mapped where possible; anything else (eg: a jar
+ * entry) is streamed into a buffer from the {@link DirectBufferPool}.  Either
+ * way the returned sound's data is a slice of that buffer covering just the
+ * <code>data</code> chunk.
+ * <p>
+ * The chunk walk tolerates the layouts found in the wild: extra chunks
+ * (<code>LIST</code>, <code>fact</code>, ...) before or after the format,
+ * odd-sized chunks with their pad byte, <code>WAVE_FORMAT_EXTENSIBLE</code>
+ * headers, and data chunk sizes that are zero or run past the end of the
+ * file.
+ */
+public class WAVReader {
+
+    private static final int RIFF = 0x46464952;    // "RIFF", little-endian
+    private static final int WAVE = 0x45564157;    // "WAVE"
+    private static final int FMT  = 0x20746d66;    // "fmt "
+    private static final int DATA = 0x61746164;    // "data"
+
+    private static final int WAVE_FORMAT_PCM        = 0x0001;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xfffe;
+
+    /**
+     * The format of a WAV file, as given by its <code>fmt</code> chunk, and
+     * the size of its <code>data</code> chunk.
+     */
+    public static final class Header {
+
+        public final int channels;
+        public final int rate;
+        public final int bits;
+        public final int blockAlign;
+
+        /** OpenAL format, one of the <code>AL_FORMAT_*</code> constants. */
+        public final int format;
+
+        /** Bytes of sample data, or -1 if the writer left the size open. */
+        public final long dataSize;
+
+        Header(int channels, int rate, int bits, int blockAlign, long dataSize) throws IOException {
+
+            this.channels = channels;
+            this.rate = rate;
+            this.bits = bits;
+            this.blockAlign = blockAlign;
+            this.format = alFormat(channels, bits);
+            this.dataSize = dataSize;
+        }
+    }
+
+    /**
+     * Reads a WAV file from a URL, memory-mapping it if it's a local file.
+     *
+     * @param url Location of the file.
+     * @return The sound.
+     * @throws IOException If the file can't be read or isn't a supported WAV.
+     */
+    public static SoundData read(URL url) throws IOException {
+
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return read(new File(url.toURI()));
+            }
+            catch (URISyntaxException ex) {
+                // Fall through and stream it instead
+            }
+        }
+        return read(url.openStream());
+    }
+
+    /**
+     * Reads a WAV file by memory-mapping it.
+     *
+     * @param file The file.
+     * @return The sound.
+     * @throws IOException If the file can't be read or isn't a supported WAV.
+     */
+    public static SoundData read(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), null);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a WAV file from a stream into a pooled direct buffer.  The stream
+     * is closed afterwards.
+     *
+     * @param in The stream.
+     * @return The sound; call {@link SoundData#recycle} once it's uploaded.
+     * @throws IOException If the stream can't be read or isn't a supported WAV.
+     */
+    public static SoundData read(InputStream in) throws IOException {
+
+        ReadableByteChannel channel = Channels.newChannel(in);
+        ByteBuffer buffer = null;
+        try {
+            // The RIFF header says how large the rest of the file is
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header);
+            if (header.getInt(0) != RIFF) {
+                throw new IOException("Not a RIFF file");
+            }
+            long length = (header.getInt(4) & 0xffffffffL) + 8;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("WAV file too large");
+            }
+
+            DirectBufferPool pool = DirectBufferPool.getShared();
+            buffer = pool.acquire((int)length);
+            header.flip();
+            buffer.put(header);
+            int read = 0;
+            while (buffer.hasRemaining() && read >= 0) {
+                read = channel.read(buffer);    // a short file just ends early
+            }
+            buffer.flip();
+
+            SoundData sound = parse(buffer, buffer);
+            buffer = null;
+            return sound;
+        }
+        finally {
+            if (buffer != null) {
+                DirectBufferPool.getShared().release(buffer);
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * Walks the chunks of a complete RIFF/WAVE image.
+     *
+     * @param file   The file contents, positioned at the RIFF header.
+     * @param pooled Pooled buffer backing <code>file</code>, or <code>null</code>.
+     */
+    private static SoundData parse(ByteBuffer file, ByteBuffer pooled) throws IOException {
+
+        ByteBuffer in = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < 12 || in.getInt() != RIFF) {
+            throw new IOException("Not a RIFF file");
+        }
+        in.getInt();
+        if (in.getInt() != WAVE) {
+            throw new IOException("Not a WAVE file");
+        }
+
+        Header header = null;
+        int dataOffset = -1, dataSize = 0;
+
+        while (in.remaining() >= 8) {
+            int id = in.getInt();
+            long size = in.getInt() & 0xffffffffL;
+            int start = in.position();
+            int available = in.remaining();
+
+            if (id == FMT) {
+                header = readFormat(in, start, size, available);
+            }
+            else if (id == DATA) {
+                // Streaming writers leave the size at 0 or -1; trust the file length instead
+                dataOffset = start;
+                dataSize = (size == 0 || size > available) ? available : (int)size;
+                if (header != null) {
+                    break;
+                }
+            }
+
+            // Chunks are padded to an even length
+            long next = start + size + (size & 1);
+            if (next > in.limit()) {
+                break;
+            }
+            in.position((int)next);
+        }
+
+        if (header == null) {
+            throw new IOException("Missing fmt chunk");
+        }
+        if (dataOffset < 0) {
+            throw new IOException("Missing data chunk");
+        }
+        if (header.blockAlign > 0) {
+            dataSize -= dataSize % header.blockAlign;
+        }
+        ByteBuffer data = file.duplicate();
+        data.position(dataOffset);
+        data.limit(dataOffset + dataSize);
+        data = data.slice();
+
+        // OpenAL wants 16-bit samples in native order.  Pooled data is swapped
+        // in place, mapped (read-only) data is copied into the pool first.
+        if (header.bits == 16 && ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            if (pooled == null) {
+                pooled = DirectBufferPool.getShared().acquire(dataSize);
+                swapToNative(data, pooled);
+                data = pooled;
+            }
+            else {
+                swapToNative(data, data);
+            }
+        }
+        return new SoundData(header.format, data, dataSize, header.rate, pooled);
+    }
+
+    /**
+     * Reads the header of a WAV file from a stream, walking the chunks up to
+     * the start of the sample data, where the stream is left.  Used to
+     * stream files that are too long to load whole; the samples are
+     * little-endian.
+     *
+     * @param in The stream; it isn't closed.
+     * @return The format and size of the sample data.
+     * @throws IOException If the stream can't be read or isn't a supported WAV.
+     */
+    public static Header readHeader(InputStream in) throws IOException {
+
+        DataInputStream data = new DataInputStream(in);
+        ByteBuffer chunk = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        data.readFully(chunk.array(), 0, 12);
+        if (chunk.getInt(0) != RIFF) {
+            throw new IOException("Not a RIFF file");
+        }
+        if (chunk.getInt(8) != WAVE) {
+            throw new IOException("Not a WAVE file");
+        }
+
+        Header header = null;
+        while (true) {
+            data.readFully(chunk.array(), 0, 8);
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xffffffffL;
+            long skip = size + (size & 1);
+
+            if (id == DATA) {
+                if (header == null) {
+                    throw new IOException("Missing fmt chunk");
+                }
+                long dataSize = (size == 0 || size == 0xffffffffL) ? -1 : size;
+                return new Header(header.channels, header.rate, header.bits, header.blockAlign, dataSize);
+            }
+            if (id == FMT) {
+                if (skip > 1024) {
+                    throw new IOException("Oversized fmt chunk");
+                }
+                ByteBuffer fmt = ByteBuffer.allocate((int)skip).order(ByteOrder.LITTLE_ENDIAN);
+                data.readFully(fmt.array());
+                header = readFormat(fmt, 0, size, fmt.capacity());
+                continue;
+            }
+            while (skip > 0) {
+                long n = data.skip(skip);
+                if (n <= 0) {
+                    data.readByte();    // throws at the end of the stream
+                    n = 1;
+                }
+                skip -= n;
+            }
+        }
+    }
+
+    /**
+     * Reads a <code>fmt</code> chunk.
+     *
+     * @param in        Little-endian buffer holding the chunk.
+     * @param start     Offset of the chunk body.
+     * @param size      Size of the chunk body as given in its header.
+     * @param available Bytes of the body actually present.
+     * @return The format, with the data size left open.
+     */
+    private static Header readFormat(ByteBuffer in, int start, long size, int available) throws IOException {
+
+        if (size < 16 || available < 16) {
+            throw new IOException("Truncated fmt chunk");
+        }
+        int tag = in.getShort(start) & 0xffff;
+        int channels = in.getShort(start + 2);
+        int rate = in.getInt(start + 4);
+        int blockAlign = in.getShort(start + 12);
+        int bits = in.getShort(start + 14);
+        if (tag == WAVE_FORMAT_EXTENSIBLE && size >= 26 && available >= 26) {
+            tag = in.getShort(start + 24) & 0xffff;    // first field of the sub-format GUID
+        }
+        if (tag != WAVE_FORMAT_PCM) {
+            throw new IOException("Unsupported WAV encoding 0x" + Integer.toHexString(tag));
+        }
+        return new Header(channels, rate, bits, blockAlign, -1);
+    }
+
+    private static int alFormat(int channels, int bits) throws IOException {
+
+        if (channels == 1 && bits == 8)  return AL.AL_FORMAT_MONO8;
+        if (channels == 1 && bits == 16) return AL.AL_FORMAT_MONO16;
+        if (channels == 2 && bits == 8)  return AL.AL_FORMAT_STEREO8;
+        if (channels == 2 && bits == 16) return AL.AL_FORMAT_STEREO16;
+        throw new IOException("Unsupported WAV format: " + channels + " channels, " + bits + " bits");
+    }
+
+    /**
+     * Copies little-endian 16-bit samples to <code>target</code> in native
+     * order.  The two buffers may be the same.
+     */
+    static void swapToNative(ByteBuffer source, ByteBuffer target) {
+
+        ByteBuffer in = source.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = target.duplicate().order(ByteOrder.nativeOrder());
+        for (int i = 0; i + 1 < in.limit(); i += 2) {
+            out.putShort(i, in.getShort(i));
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -35,11 +35,13 @@
 package demos.devmaster.lesson1;
 
 import java.io.*;
-import java.nio.ByteBuffer;
 
 import net.java.games.joal.*;
 import net.java.games.joal.util.*;
 
+import demos.common.AudioThread;
+import demos.common.SoundData;
+
 // For the GUI
 import java.awt.*;
 import java.awt.event.*;
@@ -61,6 +63,11 @@ public class SingleStaticSource {
   }
 
   public SingleStaticSource(boolean gui, Container parent, boolean showQuitButton) {
+    // All AL calls happen on the audio thread; the buttons and the console
+    // only post commands to it.
+    audio = new AudioThread(50.0f, 64);
+    audio.start();
+
     if (gui) {
       JFrame frame = null;
 
@@ -76,27 +83,21 @@ public class SingleStaticSource {
       JButton button = new JButton("Play sound");
       button.addActionListener(new ActionListener() {
           public void actionPerformed(ActionEvent e) {
-            if (!initialize())
-              System.exit(1);
-            al.alSourcePlay(source[0]);
+            command('p');
           }
         });
       container.add(button);
       button = new JButton("Stop playing");
       button.addActionListener(new ActionListener() {
           public void actionPerformed(ActionEvent e) {
-            if (!initialize())
-              System.exit(1);
-            al.alSourceStop(source[0]);
+            command('s');
           }
         });
       container.add(button);
       button = new JButton("Pause sound");
       button.addActionListener(new ActionListener() {
           public void actionPerformed(ActionEvent e) {
-            if (!initialize())
-              System.exit(1);
-            al.alSourcePause(source[0]);
+            command('h');
           }
         });
       container.add(button);
@@ -105,9 +106,8 @@ public class SingleStaticSource {
         button = new JButton("Quit");
         button.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent e) {
-              if (!initialize())
-                System.exit(1);
-              killAllData();
+              command('q');
+              audio.shutdown();
               System.exit(0);
             }
           });
@@ -122,9 +122,7 @@ public class SingleStaticSource {
       }
     } else {
       // Initialize OpenAL and clear the error bit.
-      if (!initialize()) {
-        System.exit(1);
-      }
+      command('i');
 
       char[] c = new char[1];
       while (c[0] != 'q') {
@@ -136,7 +134,22 @@ public class SingleStaticSource {
                              + "'p' to play, 's' to stop, " +
                              "'h' to pause and 'q' to quit");
           buf.read(c);
-          switch (c[0]) {
+          command(c[0]);
+        } catch (IOException e) {
+          System.exit(1);
+        }
+      }
+      audio.shutdown();
+    }
+  }
+
+  // Runs a command on the audio thread, initializing OpenAL first if needed.
+  private void command(final char c) {
+    audio.post(new Runnable() {
+        public void run() {
+          if (!initialize())
+            System.exit(1);
+          switch (c) {
           case 'p' :
             // Pressing 'p' will begin playing the sample.
             al.alSourcePlay(source[0]);
@@ -153,13 +166,12 @@ public class SingleStaticSource {
             killAllData();
             break;
           }
-        } catch (IOException e) {
-          System.exit(1);
         }
-      }
-    }
+      });
   }
 
+  private AudioThread audio;
+
   private AL al;
 
   // Buffers hold sound data.
@@ -215,32 +227,15 @@ public class SingleStaticSource {
 
   private int loadALData() {
 
-    // variables to load into
-
-    int[] format = new int[1];
-    int[] size = new int[1];
-    ByteBuffer[] data = new ByteBuffer[1];
-    int[] freq = new int[1];
-    int[] loop = new int[1];
-
     // Load wav data into a buffer.
     al.alGenBuffers(1, buffer, 0);
     if (al.alGetError() != AL.AL_NO_ERROR)
       throw new ALException("Error generating OpenAL buffers");
 
-    ALut.alutLoadWAVFile(
-      SingleStaticSource.class.getClassLoader().getResourceAsStream("demos/data/FancyPants.wav"),
-      format,
-      data,
-      size,
-      freq,
-      loop);
-    if (data[0] == null) {
-      throw new RuntimeException("Error loading WAV file");
-    }
-    System.out.println("sound size = " + size[0]);
-    System.out.println("sound freq = " + freq[0]);
-    al.alBufferData(buffer[0], format[0], data[0], size[0], freq[0]);
+    SoundData sound = SoundData.load("demos/data/FancyPants.wav");
+    System.out.println("sound size = " + sound.size);
+    System.out.println("sound freq = " + sound.freq);
+    sound.upload(al, buffer[0]);
 
     // Bind buffer with a source.
     al.alGenSources(1, source, 0);
@@ -251,7 +246,7 @@ public class SingleStaticSource {
     al.alSourcei(source[0], AL.AL_BUFFER, buffer[0]);
     al.alSourcef(source[0], AL.AL_PITCH, 1.0f);
     al.alSourcef(source[0], AL.AL_GAIN, 1.0f);
-    al.alSourcei(source[0], AL.AL_LOOPING, loop[0]);
+    al.alSourcei(source[0], AL.AL_LOOPING, AL.AL_FALSE);
 
     // Do another error check
     if (al.alGetError() != AL.AL_NO_ERROR)
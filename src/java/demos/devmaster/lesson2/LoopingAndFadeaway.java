@@ -40,6 +40,10 @@ import java.nio.*;
 import net.java.games.joal.*;
 import net.java.games.joal.util.*;
 
+import demos.common.AudioScheduler;
+import demos.common.SoundData;
+import demos.common.SourceBatch;
+
 /**
  * Adapted from <a href="http://www.devmaster.net/">DevMaster</a>
  * <a href="http://www.devmaster.net/articles/openal-tutorials/lesson2.php">LoopingAndFadeaway Tutorial</a>
@@ -60,31 +64,22 @@ public class LoopingAndFadeaway {
   static float[] listenerOri = { 0.0f, 0.0f, -1.0f, 0.0f, 1.0f, 0.0f };
   static AL al;
   static ALC alc;
+  static SourceBatch batch;
+
+  // position changes smaller than this aren't sent to OpenAL
+  static float epsilon = 0.0f;
 
   static int loadALData() {
     if (al.alGetError() != AL.AL_NO_ERROR) {
       return AL.AL_FALSE;
     }
 
-    int[] format = new int[1];
-    int[] size = new int[1];
-    ByteBuffer[] data = new ByteBuffer[1];
-    int[] freq = new int[1];
-    int[] loop = new int[1];
-
     // Load wav data into a buffer.
     al.alGenBuffers(1, buffer, 0);
     if (al.alGetError() != AL.AL_NO_ERROR)
       return AL.AL_FALSE;
 
-    ALut.alutLoadWAVFile(
-      LoopingAndFadeaway.class.getClassLoader().getResourceAsStream("demos/data/Footsteps.wav"),
-      format,
-      data,
-      size,
-      freq,
-      loop);
-    al.alBufferData(buffer[0], format[0], data[0], size[0], freq[0]);
+    SoundData.load("demos/data/Footsteps.wav").upload(al, buffer[0]);
 
     al.alGenSources(1, source, 0);
     al.alSourcei(source[0], AL.AL_BUFFER, buffer[0]);
@@ -102,9 +97,10 @@ public class LoopingAndFadeaway {
   }
 
   static void setListenerValues() {
-    al.alListenerfv(AL.AL_POSITION, listenerPos, 0);
-    al.alListenerfv(AL.AL_VELOCITY, listenerVel, 0);
-    al.alListenerfv(AL.AL_ORIENTATION, listenerOri, 0);
+    batch.setListenerPosition(listenerPos[0], listenerPos[1], listenerPos[2]);
+    batch.setListenerVelocity(listenerVel[0], listenerVel[1], listenerVel[2]);
+    batch.setListenerOrientation(listenerOri, 0);
+    batch.commit();
   }
 
   static void killAllData() {
@@ -113,9 +109,15 @@ public class LoopingAndFadeaway {
   }
 
   public static void main(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-epsilon"))
+        epsilon = Float.parseFloat(args[++i]);
+    }
+
     try {
       ALut.alutInit();
       al = ALFactory.getAL();
+      alc = ALFactory.getALC();
     } catch (ALException e) {
       e.printStackTrace();
       return;
@@ -124,26 +126,31 @@ public class LoopingAndFadeaway {
     if(loadALData() == AL.AL_FALSE) {
       System.exit(1);
     }; 
+    batch = new SourceBatch(al, alc);
+    batch.setEpsilon(epsilon);
+    final int footsteps = batch.add(source[0]);
     setListenerValues();
     al.alSourcePlay(source[0]);
-    long startTime = System.currentTimeMillis();
-    long elapsed = 0;
-    long ticker = 0;
-    long lastTime = 0;
-    while (elapsed < 10000) {
-      elapsed = System.currentTimeMillis() - startTime;            
-      if (ticker > 100) {
-        ticker = 0;
-        sourcePos[0] += sourceVel[0];
-        sourcePos[1] += sourceVel[1];
-        sourcePos[2] += sourceVel[2];
-        al.alSourcefv(source[0],
-                      AL.AL_POSITION,
-                      sourcePos, 0);
-      }
-      ticker += System.currentTimeMillis() - lastTime;
-      lastTime = System.currentTimeMillis(); 
-    }
+
+    // move the source every 100 ms for 10 seconds
+    final AudioScheduler scheduler = new AudioScheduler(10.0f);
+    scheduler.add(new AudioScheduler.Task() {
+        public void tick(long tick, float seconds) {
+          if (tick >= 100) {
+            scheduler.stop();
+            return;
+          }
+          sourcePos[0] += sourceVel[0];
+          sourcePos[1] += sourceVel[1];
+          sourcePos[2] += sourceVel[2];
+          batch.setPosition(footsteps, sourcePos[0], sourcePos[1], sourcePos[2]);
+          batch.commit();
+        }
+      });
+    scheduler.run();
+    System.out.println(scheduler.getStatistics());
+    System.out.println("Suppressed " + batch.getSuppressed() + " of "
+                       + (batch.getCalls() + batch.getSuppressed()) + " updates");
     System.exit(0);
   }
 }
@@ -34,12 +34,21 @@
 
 package demos.devmaster.lesson3;
 
-import java.nio.ByteBuffer;
 import java.util.Random;
+import java.util.concurrent.Future;
 
 import net.java.games.joal.*;
 import net.java.games.joal.util.*;
 
+import demos.common.AsyncSoundLoader;
+import demos.common.AudioScheduler;
+import demos.common.PlaybackQueue;
+import demos.common.SoundData;
+import demos.common.SoundNormalizer;
+import demos.common.SourceMonitor;
+import demos.common.SourceBatch;
+import demos.devmaster.lesson8.OggStreamer;
+
 /**
  * Adapted from <a href="http://www.devmaster.net/">DevMaster</a>
  * <a href="http://www.devmaster.net/articles/openal-tutorials/lesson3.php">MultipleSources Tutorial</a>
@@ -52,6 +61,7 @@ import net.java.games.joal.util.*;
 public class MultipleSources {
 
   static AL al;
+  static ALC alc;
   static final int NUM_BUFFERS = 3;
   static final int NUM_SOURCES = 3;
 
@@ -68,58 +78,41 @@ public class MultipleSources {
   static float[] listenerVel = { 0.0f, 0.0f, 0.0f };
   static float[] listenerOri = { 0.0f, 0.0f, -1.0f, 0.0f, 1.0f, 0.0f };
 
+  // if set, the battle bed is streamed through a few small buffers
+  // instead of being loaded whole into buffers[BATTLE]
+  static boolean streamBattle = false;
+  static OggStreamer battleStream;
+
+  // gun positions are collected here and applied together each tick;
+  // batch index i is sources[i]
+  static SourceBatch batch;
+
+  // tells us when a gun has finished, so it can fire again
+  static SourceMonitor monitor;
+  static boolean[] firing = new boolean[NUM_SOURCES];
+
+  // starts the gunshots on a 50 ms grid of the device's sample clock
+  static PlaybackQueue queue;
+
   static int loadALData() {
-    //variables to load into
-    int[] format = new int[1];
-    int[] size = new int[1];
-    ByteBuffer[] data = new ByteBuffer[1];
-    int[] freq = new int[1];
-    int[] loop = new int[1];
-        
     // load wav data into buffers
     al.alGenBuffers(NUM_BUFFERS, buffers, 0);
     if (al.alGetError() != AL.AL_NO_ERROR) {
       return AL.AL_FALSE;
     }
 
-    ALut.alutLoadWAVFile(
-      MultipleSources.class.getClassLoader().getResourceAsStream("demos/data/Battle.wav"),
-      format,
-      data,
-      size,
-      freq,
-      loop);
-    al.alBufferData(buffers[BATTLE],
-                    format[0],
-                    data[0],
-                    size[0],
-                    freq[0]);
-
-    ALut.alutLoadWAVFile(
-      MultipleSources.class.getClassLoader().getResourceAsStream("demos/data/Gun1.wav"),
-      format,
-      data,
-      size,
-      freq,
-      loop);
-    al.alBufferData(buffers[GUN1],
-                    format[0],
-                    data[0],
-                    size[0],
-                    freq[0]);
-
-    ALut.alutLoadWAVFile(
-      MultipleSources.class.getClassLoader().getResourceAsStream("demos/data/Gun2.wav"),
-      format,
-      data,
-      size,
-      freq,
-      loop);
-    al.alBufferData(buffers[GUN2],
-                    format[0],
-                    data[0],
-                    size[0],
-                    freq[0]);
+    // parse the files in parallel and upload them here as they complete
+    AsyncSoundLoader loader = new AsyncSoundLoader();
+    Future<SoundData> battle = streamBattle ? null : loader.load("demos/data/Battle.wav");
+    Future<SoundData> gun1 = loader.load("demos/data/Gun1.wav");
+    Future<SoundData> gun2 = loader.load("demos/data/Gun2.wav");
+
+    if (battle != null) {
+      AsyncSoundLoader.upload(al, buffers[BATTLE], battle);
+    }
+    AsyncSoundLoader.upload(al, buffers[GUN1], gun1);
+    AsyncSoundLoader.upload(al, buffers[GUN2], gun2);
+    loader.shutdown();
 
     // bind buffers into audio sources
     al.alGenSources(NUM_SOURCES, sources, 0);
@@ -165,9 +158,15 @@ public class MultipleSources {
   }
 
   public static void main(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-stream"))
+        streamBattle = true;
+    }
+
     try {
       ALut.alutInit();
       al = ALFactory.getAL();
+      alc = ALFactory.getALC();
     } catch (ALException e) {
       e.printStackTrace();
       System.exit(1);
@@ -178,33 +177,69 @@ public class MultipleSources {
       System.exit(1);    
     }
     setListenerValues();
-    al.alSourcePlay(sources[BATTLE]);
-    long startTime = System.currentTimeMillis();
-    long elapsed = 0;
-    long totalElapsed = 0;
-    Random rand = new Random();
-    int[] state = new int[1];
-    while (totalElapsed < 10000) {
-      elapsed = System.currentTimeMillis() - startTime;
-      if (elapsed > 50) {
-        totalElapsed += elapsed;
-        startTime = System.currentTimeMillis();
-        // pick one of the two guns
-        int pick = Math.abs((rand.nextInt()) % 2) + 1;
-        al.alGetSourcei(sources[pick], AL.AL_SOURCE_STATE, state, 0);
-        if (state[0] != AL.AL_PLAYING) {
-          double theta = (rand.nextInt() % 360) * 3.14 / 180.0;
-          sourcePos[pick][0] = - ((float) Math.cos(theta));
-          sourcePos[pick][1] = - ((float) (rand.nextInt() % 2));
-          sourcePos[pick][2] = - ((float) Math.sin(theta));
-
-          al.alSourcefv(sources[pick],
-                        AL.AL_POSITION,
-                        sourcePos[pick], 0);
-
-          al.alSourcePlay(sources[pick]);
-        }
+    batch = new SourceBatch(al, alc);
+    for (int i = 0; i < NUM_SOURCES; i++) {
+      batch.add(sources[i]);
+    }
+    if (streamBattle) {
+      battleStream = new OggStreamer(MultipleSources.class.getClassLoader().getResource("demos/data/Battle.wav"));
+      battleStream.setLooping(true);
+      if (!battleStream.open() || !battleStream.playback()) {
+        System.exit(1);
       }
+    } else {
+      al.alSourcePlay(sources[BATTLE]);
+    }
+    // every 50 ms for 10 seconds, fire one of the guns if it's idle
+    final Random rand = new Random();
+    monitor = new SourceMonitor(al);
+    queue = new PlaybackQueue(al, alc, SoundNormalizer.getDeviceRate(alc, alc.alcGetContextsDevice(alc.alcGetCurrentContext())), 0.1f);
+    queue.setMonitor(monitor);
+    final long grid = queue.getClockRate() / 20;
+    final SourceMonitor.Listener reload = new SourceMonitor.Listener() {
+        public void stopped(int source) {
+          for (int i = 0; i < NUM_SOURCES; i++) {
+            if (sources[i] == source)
+              firing[i] = false;
+          }
+        }
+      };
+    final AudioScheduler scheduler = new AudioScheduler(20.0f);
+    scheduler.add(new AudioScheduler.Task() {
+        public void tick(long tick, float seconds) {
+          if (tick >= 200) {
+            scheduler.stop();
+            return;
+          }
+          if (battleStream != null) {
+            battleStream.update();
+          }
+          monitor.poll();
+          // pick one of the two guns
+          int pick = Math.abs((rand.nextInt()) % 2) + 1;
+          if (!firing[pick]) {
+            double theta = (rand.nextInt() % 360) * 3.14 / 180.0;
+            sourcePos[pick][0] = - ((float) Math.cos(theta));
+            sourcePos[pick][1] = - ((float) (rand.nextInt() % 2));
+            sourcePos[pick][2] = - ((float) Math.sin(theta));
+
+            batch.setPosition(pick, sourcePos[pick][0], sourcePos[pick][1], sourcePos[pick][2]);
+            batch.commit();
+
+            // the first grid point past the look-ahead
+            long at = ((queue.now() + 2 * grid) / grid + 1) * grid;
+            queue.schedule(at, sources[pick], buffers[pick], reload);
+            firing[pick] = true;
+          }
+          queue.update();
+        }
+      });
+    scheduler.run();
+    System.out.println(scheduler.getStatistics());
+    queue.release();
+    if (battleStream != null) {
+      battleStream.release();
+      OggStreamer.releasePool();
     }
     killAllData();
     System.exit(0);
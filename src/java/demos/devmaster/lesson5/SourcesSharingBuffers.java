@@ -47,6 +47,19 @@ import javax.swing.*;
 import net.java.games.joal.*;
 import net.java.games.joal.util.*;
 
+import demos.common.AsyncSoundLoader;
+import demos.common.AudioEngine;
+import demos.common.AudioScheduler;
+import demos.common.AudioThread;
+import demos.common.EmitterGrid;
+import demos.common.EmitterVoices;
+import demos.common.LodManager;
+import demos.common.SoundBank;
+import demos.common.SoundNormalizer;
+import demos.common.SourceStatePublisher;
+import demos.common.SourceStates;
+import demos.common.VoiceManager;
+
 /**
  * Adapted from <a href="http://www.devmaster.net/">DevMaster</a>
  * <a href="http://www.devmaster.net/articles/openal-tutorials/lesson3.php">MultipleSources Tutorial</a>
@@ -71,120 +84,137 @@ public class SourcesSharingBuffers {
   public static final int OCEAN       = 5;
   public static final int NUM_BUFFERS = 6;
 
-  //     Buffers hold sound data.
-  static int[] buffers = new int[NUM_BUFFERS];
+  //     The sound file for each buffer index.
+  static final String[] soundFiles = {
+    "demos/data/thunder.wav",
+    "demos/data/waterdrop.wav",
+    "demos/data/stream.wav",
+    "demos/data/rain.wav",
+    "demos/data/chimes.wav",
+    "demos/data/ocean.wav"
+  };
 
-  //     A list of sources for multiple emissions.
-  static List sources = new ArrayList();
+  //     Loads the sound files on worker threads.
+  static AsyncSoundLoader loader;
 
-  //  Position of the source sounds.
-  static float[] sourcePos = { 0.0f, 0.0f, 0.0f };
+  //     Buffers hold sound data, one per index above.
+  static SoundBank bank;
 
-  //  Velocity of the source sounds.
-  static float[] sourceVel = { 0.0f, 0.0f, 0.0f };
+  //     If set, a buffer is only loaded the first time a source needs it.
+  static boolean lazy = false;
 
+  //     If set (with lazy), all files are parsed ahead of time in the
+  //     background so only the upload is left for addSource().
+  static boolean prefetch = false;
 
+  //     Maximum number of bytes of sound data to keep in buffers.
+  static long budget = Long.MAX_VALUE;
 
-  //  Position of the listener.
-  static float[] listenerPos = { 0.0f, 0.0f, 0.0f };
+  //     If set, sounds are kept compressed in memory and only decoded
+  //     into buffers when they're used.
+  static boolean compressed = false;
 
-  //  Velocity of the listener.
-  static float[] listenerVel = { 0.0f, 0.0f, 0.0f };
+  //     If set, sounds are converted to mono at the device's output rate
+  //     when they're loaded, so the mixer doesn't have to resample them.
+  static boolean normalize = false;
 
-  //  Orientation of the listener. (first 3 elements are "at", second 3 are "up")
-  static float[] listenerOri = { 0.0f, 0.0f, -1.0f, 0.0f, 1.0f, 0.0f };
+  //     If set, distant emissions play from reduced-rate variants of
+  //     their sound.
+  static boolean lod = false;
 
-  static void initOpenAL() throws ALException {
-    alc = ALFactory.getALC();
-    al = ALFactory.getAL();
+  //     Priority of each sound when there are more emissions than sources;
+  //     the thunder claps are never the ones that drop out.
+  static final int[] priorities = { 2, 0, 0, 0, 1, 0 };
 
-    ALCdevice device;
-    ALCcontext context;
-    String deviceSpecifier;
+  //     Number of sources to play the emissions on.
+  static int maxVoices = 32;
 
-    // Get handle to default device.
-    device = alc.alcOpenDevice(null);
-    if (device == null) {
-      throw new ALException("Error opening default OpenAL device");
-    }
+  //     Plays the emissions on a fixed pool of sources.
+  static VoiceManager voices;
 
-    // Get the device specifier.
-    deviceSpecifier = alc.alcGetString(device, ALC.ALC_DEVICE_SPECIFIER);
-    if (deviceSpecifier == null) {
-      throw new ALException("Error getting specifier for default OpenAL device");
-    }
+  //     Number of emissions to scatter over the field around the listener,
+  //     who walks a circle through it.  Only the most audible ones are
+  //     handed to the voice manager.
+  static int fieldSize = 0;
+  static EmitterVoices field;
 
-    System.out.println("Using device " + deviceSpecifier);
+  //     Edge length of the field and radius of the listener's walk.
+  static final float FIELD_EXTENT = 200.0f;
+  static final float WALK_RADIUS = 60.0f;
 
-    // Create audio context.
-    context = alc.alcCreateContext(device, null);
-    if (context == null) {
-      throw new ALException("Error creating OpenAL context");
-    }
+  //     Owns the device and context, and the audio thread that makes all
+  //     the AL calls; the buttons and the console only post commands to it.
+  static AudioEngine engine;
+  static AudioThread audio;
 
-    // Set active context.
-    alc.alcMakeContextCurrent(context);
+  //     Publishes what the pool is playing once per tick, so the console
+  //     can show it without calling OpenAL.
+  static volatile SourceStatePublisher states;
 
-    // Check for an error.
-    if (alc.alcGetError(device) != ALC.ALC_NO_ERROR) {
-      throw new ALException("Error making OpenAL context current");
-    }
-  }
+  //  Position of the source sounds.
+  static float[] sourcePos = { 0.0f, 0.0f, 0.0f };
 
-  static void exitOpenAL() {
-    ALCcontext curContext;
-    ALCdevice curDevice;
+  //  Velocity of the source sounds.
+  static float[] sourceVel = { 0.0f, 0.0f, 0.0f };
 
-    // Get the current context.
-    curContext = alc.alcGetCurrentContext();
 
-    // Get the device used by that context.
-    curDevice = alc.alcGetContextsDevice(curContext);
 
-    // Reset the current context to NULL.
-    alc.alcMakeContextCurrent(null);
+  //  Position of the listener.
+  static float[] listenerPos = { 0.0f, 0.0f, 0.0f };
 
-    // Release the context and the device.
-    alc.alcDestroyContext(curContext);
-    alc.alcCloseDevice(curDevice);
-  }
-  static int loadALData() {
-    // Variables to load into.
-    int[] format = new int[1];
-    int[] size = new int[1];
-    ByteBuffer[] data = new ByteBuffer[1];
-    int[] freq = new int[1];
-    int[] loop = new int[1];
+  //  Velocity of the listener.
+  static float[] listenerVel = { 0.0f, 0.0f, 0.0f };
 
-    // Load wav data into buffers.
-    al.alGenBuffers(NUM_BUFFERS, buffers, 0);
+  //  Orientation of the listener. (first 3 elements are "at", second 3 are "up")
+  static float[] listenerOri = { 0.0f, 0.0f, -1.0f, 0.0f, 1.0f, 0.0f };
 
-    if(al.alGetError() != AL.AL_NO_ERROR)
-      return AL.AL_FALSE;
+  static void initOpenAL() throws ALException {
+    // The engine opens the default device, creates a context on it and
+    // runs the audio thread that makes it current.
+    engine = new AudioEngine(null, 50.0f);
+    alc = engine.getALC();
+    al = engine.getAL();
+    audio = engine.getThread();
 
-    ALut.alutLoadWAVFile(SourcesSharingBuffers.class.getClassLoader().getResourceAsStream("demos/data/thunder.wav"),
-                         format, data, size, freq, loop);
-    al.alBufferData(buffers[THUNDER], format[0], data[0], size[0], freq[0]);
+    System.out.println("Using device " + engine.getDeviceSpecifier());
 
-    ALut.alutLoadWAVFile(SourcesSharingBuffers.class.getClassLoader().getResourceAsStream("demos/data/waterdrop.wav"),
-                         format, data, size, freq, loop);
-    al.alBufferData(buffers[WATERDROP], format[0], data[0], size[0], freq[0]);
+    engine.start();
+  }
 
-    ALut.alutLoadWAVFile(SourcesSharingBuffers.class.getClassLoader().getResourceAsStream("demos/data/stream.wav"),
-                         format, data, size, freq, loop);
-    al.alBufferData(buffers[STREAM], format[0], data[0], size[0], freq[0]);
+  static void exitOpenAL() {
+    // Stops the audio thread, then releases the bank, the context and
+    // the device.
+    engine.release();
+  }
 
-    ALut.alutLoadWAVFile(SourcesSharingBuffers.class.getClassLoader().getResourceAsStream("demos/data/rain.wav"),
-                         format, data, size, freq, loop);
-    al.alBufferData(buffers[RAIN], format[0], data[0], size[0], freq[0]);
+  static int loadALData() {
+    loader = engine.getLoader();
+    bank = engine.createBank(soundFiles);
+    bank.setBudget(budget);
+    bank.setCompressed(compressed);
+    if (normalize) {
+      bank.setNormalization(SoundNormalizer.getDeviceRate(alc, engine.getDevice()));
+    }
 
-    ALut.alutLoadWAVFile(SourcesSharingBuffers.class.getClassLoader().getResourceAsStream("demos/data/ocean.wav"),
-                         format, data, size, freq, loop);
-    al.alBufferData(buffers[OCEAN], format[0], data[0], size[0], freq[0]);
+    if (lazy) {
+      // Buffers are loaded by addSource() the first time they're needed.
+      if (prefetch) {
+        for (int i = 0; i < NUM_BUFFERS; i++) {
+          bank.prefetch(i);
+        }
+      }
+    } else {
+      // Read and parse all of the files in parallel; only the uploads into
+      // the buffers have to happen on this thread.
+      bank.loadAll();
+    }
 
-    ALut.alutLoadWAVFile(SourcesSharingBuffers.class.getClassLoader().getResourceAsStream("demos/data/chimes.wav"),
-                         format, data, size, freq, loop);
-    al.alBufferData(buffers[CHIMES], format[0], data[0], size[0], freq[0]);
+    voices = new VoiceManager(al, bank, maxVoices);
+    if (lod)
+      voices.setLodManager(new LodManager(al, bank));
+    if (fieldSize > 0)
+      createField();
+    System.out.println("Playing on " + voices.getPoolSize() + " sources");
 
     // Do another error check and return.
     if (al.alGetError() != AL.AL_NO_ERROR)
@@ -193,26 +223,28 @@ public class SourcesSharingBuffers {
     return AL.AL_TRUE;
   }
 
-  static void addSource(int type) {
-    int[] source = new int[1];
-
-    al.alGenSources(1, source, 0);
-
-    if (al.alGetError() != AL.AL_NO_ERROR) {
-      System.err.println("Error generating audio source.");
-      System.exit(1);
+  static void createField() {
+    Random random = new Random(42);
+    field = new EmitterVoices(voices, new EmitterGrid(10.0f, fieldSize), voices.getPoolSize());
+    for (int i = 0; i < fieldSize; i++) {
+      int type = random.nextInt(NUM_BUFFERS);
+      float[] pos = { (random.nextFloat() - 0.5f) * FIELD_EXTENT, 0.0f,
+                      (random.nextFloat() - 0.5f) * FIELD_EXTENT };
+      field.add(type, priorities[type], pos, 0.5f + random.nextFloat() * 0.5f);
     }
+    System.out.println("Scattered " + fieldSize + " emissions over the field");
+  }
 
-    al.alSourcei (source[0], AL.AL_BUFFER,   buffers[type]);
-    al.alSourcef (source[0], AL.AL_PITCH,    1.0f          );
-    al.alSourcef (source[0], AL.AL_GAIN,     1.0f          );
-    al.alSourcefv(source[0], AL.AL_POSITION, sourcePos    , 0);
-    al.alSourcefv(source[0], AL.AL_VELOCITY, sourceVel    , 0);
-    al.alSourcei (source[0], AL.AL_LOOPING,  AL.AL_TRUE      );
-
-    al.alSourcePlay(source[0]);
+  //     Moves the listener a little further along its walk.
+  static void walk(long tick, float seconds) {
+    double angle = tick * seconds * 0.1;
+    listenerPos[0] = (float)(Math.cos(angle) * WALK_RADIUS);
+    listenerPos[2] = (float)(Math.sin(angle) * WALK_RADIUS);
+    al.alListenerfv(AL.AL_POSITION, listenerPos, 0);
+  }
 
-    sources.add(new Integer(source[0]));
+  static void addSource(int type) {
+    voices.play(type, priorities[type], sourcePos, 1.0f, true, listenerPos);
   }
 
   static void setListenerValues() {
@@ -222,11 +254,17 @@ public class SourcesSharingBuffers {
   }
 
   static void killALData() {
-    for (Iterator iter = sources.iterator(); iter.hasNext(); ) {
-      al.alDeleteSources(1, new int[] { ((Integer)iter.next()).intValue() }, 0);
-    }
-    sources.clear();
-    al.alDeleteBuffers(NUM_BUFFERS, buffers, 0);
+    voices.release();
+  }
+
+  //     Releases the sources on the audio thread, then the engine.
+  static void shutdown() {
+    audio.post(new Runnable() {
+        public void run() {
+          if (initialized)
+            killALData();
+        }
+      });
     exitOpenAL();
   }
 
@@ -235,23 +273,45 @@ public class SourcesSharingBuffers {
     if (initialized)
       return;
     initialized = true;
-    try {
-      initOpenAL();
-    } catch (ALException e) {
-      e.printStackTrace();
-      System.exit(1);
-    }
+    // Let virtual emissions take over sources that have been freed; in a
+    // field, first swap in the emissions that came into range
+    audio.add(new AudioScheduler.Task() {
+        public void tick(long tick, float seconds) {
+          if (field != null) {
+            walk(tick, seconds);
+            field.update(listenerPos);
+          } else {
+            voices.update(listenerPos);
+          }
+        }
+      });
     if (loadALData() == AL.AL_FALSE)
       System.exit(1);
     setListenerValues();
+    states = new SourceStatePublisher(al);
+    for (int i = 0; i < voices.getPoolSize(); i++) {
+      states.add(voices.getPoolSource(i));
+    }
+    audio.add(states);
+  }
+
+  //     Adds a source on the audio thread, initializing OpenAL first if
+  //     needed; a negative type just initializes.
+  static void command(final int type) {
+    audio.post(new Runnable() {
+        public void run() {
+          initialize();
+          if (type >= 0)
+            addSource(type);
+        }
+      });
   }
 
   private static void addButton(JFrame frame, String text, final int whichSound) {
     JButton button = new JButton(text);
     button.addActionListener(new ActionListener() {
         public void actionPerformed(ActionEvent e) {
-          initialize();
-          addSource(whichSound);
+          command(whichSound);
         }
       });
     frame.getContentPane().add(button);
@@ -263,6 +323,29 @@ public class SourcesSharingBuffers {
     for (int i = 0; i < args.length; i++) {
       if (args[i].equals("-gui"))
         gui = true;
+      if (args[i].equals("-lazy"))
+        lazy = true;
+      if (args[i].equals("-prefetch"))
+        prefetch = true;
+      if (args[i].equals("-normalize"))
+        normalize = true;
+      if (args[i].equals("-lod"))
+        lod = true;
+      if (args[i].equals("-compressed"))
+        compressed = true;
+      if (args[i].equals("-field"))
+        fieldSize = Integer.parseInt(args[++i]);
+      if (args[i].equals("-voices"))
+        maxVoices = Integer.parseInt(args[++i]);
+      if (args[i].equals("-budget"))
+        budget = Long.parseLong(args[++i]) * 1024;
+    }
+
+    try {
+      initOpenAL();
+    } catch (ALException e) {
+      e.printStackTrace();
+      System.exit(1);
     }
     
     if (gui) {
@@ -287,12 +370,16 @@ public class SourcesSharingBuffers {
       frame.pack();
       frame.setVisible(true);
     } else {
-      initialize();
+      command(-1);
       char[] c = new char[1];
       while(c[0] != 'q') {    
         try {
           BufferedReader buf =
             new BufferedReader(new InputStreamReader(System.in));
+          if (states != null) {
+            SourceStates snapshot = states.get();
+            System.out.println(snapshot.countPlaying() + " of " + snapshot.size() + " sources playing");
+          }
           System.out.println("Press a key and hit ENTER: \n" +
                              "\t'w' for Water Drop\n" +
                              "\t't' for Thunder\n" +
@@ -304,19 +391,19 @@ public class SourcesSharingBuffers {
 
           buf.read(c);
           switch(c[0]) {
-          case 'w': addSource(WATERDROP); break;
-          case 't': addSource(THUNDER); break;
-          case 's': addSource(STREAM); break;
-          case 'r': addSource(RAIN); break;
-          case 'o': addSource(OCEAN); break;
-          case 'c': addSource(CHIMES); break;
+          case 'w': command(WATERDROP); break;
+          case 't': command(THUNDER); break;
+          case 's': command(STREAM); break;
+          case 'r': command(RAIN); break;
+          case 'o': command(OCEAN); break;
+          case 'c': command(CHIMES); break;
           }
         } catch (IOException e) {
-          killALData();
+          shutdown();
           System.exit(1);
         }
       }
-      killALData();
+      shutdown();
     }
   }
 }
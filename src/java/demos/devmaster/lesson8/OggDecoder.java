@@ -39,11 +39,14 @@ import de.jarnbjo.ogg.EndOfOggStreamException;
 import de.jarnbjo.ogg.LogicalOggStream;
 import de.jarnbjo.vorbis.IdentificationHeader;
 import de.jarnbjo.vorbis.VorbisStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
 import java.nio.ByteBuffer;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -51,10 +54,11 @@ import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.SourceDataLine;
 
-public class OggDecoder {
+public class OggDecoder implements StreamDecoder {
     
     private static int BLOCK_SIZE = 4096*64;
 
+    private CachedUrlStream oggStream;
     private VorbisStream vStream;
     private LogicalOggStream loStream;
     private AudioInputStream ais;
@@ -70,11 +74,40 @@ public class OggDecoder {
 	this.url = url;
     }
 
+    /**
+     * Decode an Ogg/Vorbis file that is already in memory
+     */
+    public OggDecoder(final byte[] encoded) {
+	// CachedUrlStream wants a URL, so serve the bytes through one
+	URLStreamHandler handler = new URLStreamHandler() {
+		protected URLConnection openConnection(URL u) {
+		    return new URLConnection(u) {
+			    public void connect() {
+			    }
+
+			    public int getContentLength() {
+				return encoded.length;
+			    }
+
+			    public InputStream getInputStream() {
+				return new ByteArrayInputStream(encoded);
+			    }
+			};
+		}
+	    };
+
+	try {
+	    this.url = new URL("memory", null, -1, "ogg", handler);
+	} catch (java.net.MalformedURLException e) {
+	    throw new RuntimeException(e);
+	}
+    }
+
     public boolean initialize() {
 	try {
-	    CachedUrlStream os = new CachedUrlStream(url);
+	    oggStream = new CachedUrlStream(url);
 
-	    loStream = (LogicalOggStream)os.getLogicalStreams().iterator().next();
+	    loStream = (LogicalOggStream)oggStream.getLogicalStreams().iterator().next();
 	    vStream = new VorbisStream(loStream);
 	    vStreamHdr = vStream.getIdentificationHeader();
 
@@ -89,12 +122,27 @@ public class OggDecoder {
 
 	} catch (Exception e) {
 	    e.printStackTrace();
+	    close();
 	    return false;
 	}
 
 	return true;
     }
 
+    public void close() {
+	try {
+	    if (vStream != null)
+		vStream.close();
+	    if (oggStream != null)
+		oggStream.close();
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+	vStream = null;
+	oggStream = null;
+	endOfStream = true;
+    }
+
     public int numChannels() {
 	return vStreamHdr.getChannels();
     }
@@ -103,6 +151,10 @@ public class OggDecoder {
 	return vStreamHdr.getSampleRate();
     }
 
+    public int bitsPerSample() {
+	return 16;
+    }
+
     public void setSwap(boolean swap) {
 	this.swap = swap;
     }
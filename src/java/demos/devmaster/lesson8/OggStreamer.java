@@ -37,16 +37,25 @@ package demos.devmaster.lesson8;
 import java.io.File;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import net.java.games.joal.AL;
 import net.java.games.joal.ALException;
 import net.java.games.joal.ALFactory;
 import net.java.games.joal.util.ALut;
+
+import demos.common.ALObjectPool;
+import demos.common.ALTracker;
+import demos.common.DSPChain;
+
 /**
  *
  * This is a translation of the OggVorbis streamer OpenAL tutorial 
  * at http://www.devmaster.net/articles/openal-tutorials/lesson8.php
  *
+ * Uncompressed WAV files are streamed the same way (see {@link WAVDecoder}),
+ * so long files only ever need NUM_BUFFERS buffers of BUFFER_SIZE bytes.
+ *
  * It uses the Java Ogg library from http://www.j-ogg.de to do the Ogg
  * file decoding...
  *
@@ -56,17 +65,9 @@ public class OggStreamer {
     
     static AL al = null;
 
-    static {
-        // Initialize OpenAL and clear the error bit.
-        try {
-            ALut.alutInit();
-            al = ALFactory.getAL();
-            al.alGetError();
-        } catch (ALException e) {
-            System.err.println("Error initializing OpenAL");
-            e.printStackTrace();
-        }
-    }
+    // Sources and buffers left by released streams, for the next ones to
+    // take over instead of generating their own
+    private static ALObjectPool pool = null;
     
     private static boolean debug = false;
     private static int totalBytes = 0;
@@ -75,7 +76,7 @@ public class OggStreamer {
 	if (debug) System.err.println(str);
     }
 
-    private OggDecoder oggDecoder;
+    private StreamDecoder decoder;
     
     // The size of a chunk from the stream that we want to read for each update.
     private static int BUFFER_SIZE = 4096*16;
@@ -99,34 +100,93 @@ public class OggStreamer {
     
     private URL url;
 
+    // Start over at the end of the stream, e.g. for ambience beds
+    private boolean looping = false;
+
     private long sleepTime = 0;
 
+    // Filters applied to each chunk before it's buffered, if any
+    private DSPChain dsp = null;
+
     /** Creates a new instance of OggStreamer */
     public OggStreamer(URL url) {
+	if (al == null)
+	    al = ALFactory.getAL();
 	this.url = url;
     }
+
+    /**
+     * The pool that streams lease their source and buffers from
+     */
+    public static synchronized ALObjectPool getPool() {
+	if (pool == null)
+	    pool = new ALObjectPool(al);
+	return pool;
+    }
+
+    /**
+     * Deletes the sources and buffers kept for later streams
+     */
+    public static synchronized void releasePool() {
+	if (pool != null)
+	    pool.release();
+    }
+
+    public void setLooping(boolean looping) {
+	this.looping = looping;
+    }
+
+    /**
+     * Runs each decoded chunk through the chain before it's handed to
+     * alBufferData, eg. to filter the stream when EFX isn't available
+     */
+    public void setDSP(DSPChain dsp) {
+	this.dsp = dsp;
+    }
+
+    /**
+     * Create the decoder for the stream: uncompressed WAV files are read
+     * as they are, anything else is taken to be Ogg/Vorbis
+     */
+    private StreamDecoder createDecoder() {
+	StreamDecoder dec;
+
+	if (url.getPath().toLowerCase().endsWith(".wav")) {
+	    dec = new WAVDecoder(url);
+	} else {
+	    OggDecoder ogg = new OggDecoder(url);
+	    // the decoder produces big-endian samples
+	    ogg.setSwap(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+	    dec = ogg;
+	}
+
+	// the decoders close themselves when they fail to initialize
+	return dec.initialize() ? dec : null;
+    }
     
     /**
-     * Open the Ogg/Vorbis stream and initialize OpenAL based
+     * Open the Ogg/Vorbis (or WAV) stream and initialize OpenAL based
      * on the stream properties
      */
     public boolean open() {
-	oggDecoder = new OggDecoder(url);
+	decoder = createDecoder();
 
-        if (!oggDecoder.initialize()) {
-            System.err.println("Error initializing ogg stream...");
+        if (decoder == null) {
+            System.err.println("Error initializing stream...");
             return false;
         }
         
-	int numChannels = oggDecoder.numChannels();
-	int numBytesPerSample = 2;
+	int numChannels = decoder.numChannels();
+	int numBytesPerSample = decoder.bitsPerSample() / 8;
 
         if (numChannels == 1)
-	    format = AL.AL_FORMAT_MONO16;
+	    format = (numBytesPerSample == 1) ? AL.AL_FORMAT_MONO8 : AL.AL_FORMAT_MONO16;
 	else
-	    format = AL.AL_FORMAT_STEREO16;
+	    format = (numBytesPerSample == 1) ? AL.AL_FORMAT_STEREO8 : AL.AL_FORMAT_STEREO16;
         
-	rate = oggDecoder.sampleRate();
+	rate = decoder.sampleRate();
+	if (dsp != null)
+	    dsp.reset();
 
 	// A rough estimation of how much time in milliseconds we can sleep
 	// before checking to see if the queued buffers have been played
@@ -142,12 +202,11 @@ public class OggStreamer {
 	System.err.println("Format: 0x" + Integer.toString(format, 16));
 	System.err.println("Sleep time: " + sleepTime);
 
-	// TODO: I am not if this is the right way to fix the endian
-	// problems I am having... but this seems to fix it on Linux
-	oggDecoder.setSwap(true);
-
-        al.alGenBuffers(NUM_BUFFERS, buffers, 0); check();
-        al.alGenSources(1, source, 0); check();
+	// Only the first streams generate anything; later ones take over
+	// what released streams returned to the pool
+	ALObjectPool objects = getPool();
+	objects.acquireBuffers(NUM_BUFFERS, buffers, 0);
+	source[0] = objects.acquireSource();
 
 	al.alSourcefv(source[0], AL.AL_POSITION , sourcePos, 0);
 	al.alSourcefv(source[0], AL.AL_VELOCITY , sourceVel, 0);
@@ -163,15 +222,21 @@ public class OggStreamer {
     }
     
     /**
-     * OpenAL cleanup
+     * OpenAL cleanup: the source and buffers go back to the pool, which
+     * resets the source for the next stream
      */
     public void release() {
 	al.alSourceStop(source[0]);
 	empty();
 
-	for (int i = 0; i < NUM_BUFFERS; i++) {
-	    al.alDeleteSources(i, source, 0); check();
+	if (decoder != null) {
+	    decoder.close();
+	    decoder = null;
 	}
+
+	ALObjectPool objects = getPool();
+	objects.releaseSource(source[0]); check();
+	objects.releaseBuffers(buffers.length, buffers, 0);
     }
 
     /**
@@ -241,7 +306,14 @@ public class OggStreamer {
 	int    size = 0;
 
 	try {
-	    if ((size = oggDecoder.read(pcm)) <= 0)
+	    if ((size = decoder.read(pcm)) <= 0 && looping) {
+		debugMsg("stream(): end of stream, starting over");
+		decoder.close();
+		if ((decoder = createDecoder()) == null)
+		    return false;
+		size = decoder.read(pcm);
+	    }
+	    if (size <= 0)
 		return false;
 	} catch (Exception e) {
 	    e.printStackTrace();
@@ -251,6 +323,9 @@ public class OggStreamer {
 	totalBytes += size;
 	debugMsg("stream(): buffer data => " + buffer + " totalBytes:" + totalBytes);
 
+	if (dsp != null)
+	    dsp.process(pcm, size, format, rate);
+
 	ByteBuffer data = ByteBuffer.wrap(pcm, 0, size);
 	al.alBufferData(buffer, format, data, size, rate);
 	check();
@@ -275,8 +350,6 @@ public class OggStreamer {
 
 	    queued[0]--;
 	}
-
-	oggDecoder = null;
     }
 
     /**
@@ -294,10 +367,12 @@ public class OggStreamer {
         if (!open())
             return false;
         
-        oggDecoder.dump();
+        decoder.dump();
         
-        if (!playback())
+        if (!playback()) {
+            release();
             return false;
+        }
         
         while (update()) {
 	    // We will try sleeping for sometime so that we dont
@@ -310,10 +385,13 @@ public class OggStreamer {
 
             if (playing()) continue;
             
-            if (!playback())
+            if (!playback()) {
+                release();
                 return false;
+            }
         }
         
+        release();
         return true;
     }
     
@@ -321,13 +399,26 @@ public class OggStreamer {
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        if (al == null)
+        // Initialize OpenAL and clear the error bit.
+        try {
+            ALut.alutInit();
+            al = ALTracker.wrapIfEnabled(ALFactory.getAL());
+            al.alGetError();
+            // Generate the objects for the first stream up front, so that
+            // starting it makes no gen calls (-nb may ask for more later)
+            getPool().prewarm(1, NUM_BUFFERS);
+        } catch (ALException e) {
+            System.err.println("Error initializing OpenAL");
+            e.printStackTrace();
             return;
+        }
         
 	URL url;
 
         try {
 	    boolean played = false;
+	    boolean loop = false;
+	    float lowpass = 1.0f;
             for (int i = 0; i < args.length; i++) {
 		if ("-bs".equals(args[i])) {
 		    BUFFER_SIZE = Integer.valueOf(args[++i]).intValue();
@@ -344,12 +435,26 @@ public class OggStreamer {
 		    continue;
 		}
 
+		if ("-loop".equals(args[i])) {
+		    loop = true;
+		    continue;
+		}
+
+		if ("-lowpass".equals(args[i])) {
+		    lowpass = Float.valueOf(args[++i]).floatValue();
+		    continue;
+		}
+
                 System.err.println("Playing Ogg stream : " + args[i]);
                 
                 url = ((new File(args[i])).exists()) ?
                     new URL("file:" + args[i]) : new URL(args[i]);
                 
-                if ((new OggStreamer(url)).playstream()) continue;
+                OggStreamer streamer = new OggStreamer(url);
+                streamer.setLooping(loop);
+                if (lowpass < 1.0f)
+                    streamer.setDSP(DSPChain.lowpass(1.0f, lowpass));
+                if (streamer.playstream()) continue;
                 
 		played = true;
                 System.err.println("ERROR!!");
@@ -364,6 +469,8 @@ public class OggStreamer {
             e.printStackTrace();
         }
 
+        releasePool();
+        ALTracker.report(al, System.err);
         System.exit(0);
     }
     
@@ -0,0 +1,130 @@
+package demos.devmaster.lesson8;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+
+import net.java.games.joal.AL;
+
+import demos.common.ALTracker;
+
+/**
+ * Leak regression check for {@link OggStreamer}: opens and releases a
+ * stream many times against a stand-in AL that needs no audio device, and
+ * fails if the {@link ALTracker} finds any source or buffer left alive, or
+ * if streams after the first generate new objects instead of reusing the
+ * pooled ones, or if a decoder's input stream is left open.
+ * <p>
+ * Usage: <code>OggStreamerLeakCheck [iterations]</code>; exits with status 1
+ * if anything leaked.
+ */
+public class OggStreamerLeakCheck {
+
+    private static int openStreams = 0;
+
+    /**
+     * Creates an AL that hands out increasing names, reports no errors and
+     * answers every query with 0.
+     */
+    static AL createStandInAL() {
+	return (AL)Proxy.newProxyInstance(AL.class.getClassLoader(), new Class<?>[] { AL.class },
+					  new InvocationHandler() {
+	    private int nextName = 1;
+
+	    public Object invoke(Object proxy, Method method, Object[] args) {
+		if (method.getName().startsWith("alGen") && args[1] instanceof int[]) {
+		    int n = ((Integer)args[0]).intValue();
+		    int offset = ((Integer)args[2]).intValue();
+		    for (int i = 0; i < n; i++)
+			((int[])args[1])[offset + i] = nextName++;
+		}
+		Class<?> type = method.getReturnType();
+		if (type == Boolean.TYPE)
+		    return Boolean.FALSE;
+		if (type == Integer.TYPE)
+		    return Integer.valueOf(AL.AL_NO_ERROR);
+		if (type == Float.TYPE)
+		    return Float.valueOf(0.0f);
+		return null;
+	    }
+	});
+    }
+
+    /**
+     * Wraps a URL so that the streams opened on it are counted until
+     * they're closed.  The path is kept, so the streamer still picks the
+     * decoder by its extension.
+     */
+    static URL createCountingURL(final URL target) throws MalformedURLException {
+	URLStreamHandler handler = new URLStreamHandler() {
+		protected URLConnection openConnection(URL u) {
+		    return new URLConnection(u) {
+			    public void connect() {
+			    }
+
+			    public InputStream getInputStream() throws IOException {
+				InputStream in = target.openStream();
+				openStreams++;
+				return new FilterInputStream(in) {
+					private boolean closed = false;
+
+					public void close() throws IOException {
+					    if (!closed) {
+						closed = true;
+						openStreams--;
+					    }
+					    super.close();
+					}
+				    };
+			    }
+			};
+		}
+	    };
+	return new URL("counting", null, -1, target.getPath(), handler);
+    }
+
+    public static void main(String[] args) throws MalformedURLException {
+	int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+
+	AL al = ALTracker.wrap(createStandInAL());
+	OggStreamer.al = al;
+
+	URL url = createCountingURL(OggStreamerLeakCheck.class.getClassLoader().getResource("demos/data/Footsteps.wav"));
+	long generated = 0;
+	for (int i = 0; i < iterations; i++) {
+	    OggStreamer streamer = new OggStreamer(url);
+	    if (!streamer.open()) {
+		System.err.println("Error opening " + url);
+		System.exit(1);
+	    }
+	    streamer.playback();
+	    streamer.release();
+	    if (openStreams > 0) {
+		System.out.println("FAILED: stream " + (i + 1) + " left its input open after release()");
+		System.exit(1);
+	    }
+	    if (i == 0) {
+		generated = OggStreamer.getPool().getGenerated();
+	    } else if (OggStreamer.getPool().getGenerated() != generated) {
+		System.out.println("FAILED: stream " + (i + 1) + " generated new objects instead of reusing pooled ones");
+		System.exit(1);
+	    }
+	}
+	System.out.println(OggStreamer.getPool().getReused() + " objects reused, " + generated + " generated");
+
+	OggStreamer.releasePool();
+	int leaked = ALTracker.report(al, System.out);
+	if (leaked > 0) {
+	    System.out.println("FAILED: " + leaked + " objects leaked after " + iterations + " streams");
+	    System.exit(1);
+	}
+	System.out.println("OK: no objects leaked after " + iterations + " streams");
+    }
+}
@@ -0,0 +1,41 @@
+package demos.devmaster.lesson8;
+
+import java.io.IOException;
+
+/**
+ * A source of PCM data that the {@link OggStreamer} can feed into its buffer
+ * queue one chunk at a time.
+ */
+public interface StreamDecoder {
+
+    /**
+     * Open the stream and read its header.
+     */
+    public boolean initialize();
+
+    public int numChannels();
+
+    public int sampleRate();
+
+    /**
+     * 8 or 16; 8 bit samples are unsigned, 16 bit samples are signed and in
+     * native byte order, as OpenAL expects them.
+     */
+    public int bitsPerSample();
+
+    /**
+     * Fill the buffer with the next chunk of PCM data.
+     *
+     * @return the number of bytes read, less than the buffer length
+     *         at the end of the stream and -1 once it's exhausted
+     */
+    public int read(byte[] buffer) throws IOException;
+
+    /**
+     * Close the stream.  The decoder can't be read any further; closing it
+     * again does nothing.
+     */
+    public void close();
+
+    public void dump();
+}
@@ -0,0 +1,112 @@
+package demos.devmaster.lesson8;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteOrder;
+
+import demos.common.WAVReader;
+
+/**
+ * Reads the samples of an uncompressed WAV file incrementally, so the
+ * {@link OggStreamer} can play files of any length through a fixed number
+ * of small buffers.  The header is parsed by {@link WAVReader}.
+ */
+public class WAVDecoder implements StreamDecoder {
+
+    private static final boolean SWAP = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+    private URL url;
+    private InputStream in;
+
+    private int numChannels;
+    private int sampleRate;
+    private int bitsPerSample;
+
+    // bytes of sample data left in the data chunk
+    private long remaining;
+
+    public WAVDecoder(URL url) {
+	this.url = url;
+    }
+
+    public boolean initialize() {
+	try {
+	    in = new BufferedInputStream(url.openStream());
+
+	    WAVReader.Header header = WAVReader.readHeader(in);
+	    numChannels = header.channels;
+	    sampleRate = header.rate;
+	    bitsPerSample = header.bits;
+	    // streaming writers leave the size open
+	    remaining = (header.dataSize < 0) ? Long.MAX_VALUE : header.dataSize;
+	} catch (Exception e) {
+	    e.printStackTrace();
+	    close();
+	    return false;
+	}
+
+	return true;
+    }
+
+    public int numChannels() {
+	return numChannels;
+    }
+
+    public int sampleRate() {
+	return sampleRate;
+    }
+
+    public int bitsPerSample() {
+	return bitsPerSample;
+    }
+
+    public int read(byte[] buffer) throws IOException {
+
+	if (remaining <= 0) {
+	    close();
+	    return -1;
+	}
+
+	int frameSize = numChannels * bitsPerSample / 8;
+	int wanted = (int)Math.min(buffer.length - buffer.length % frameSize, remaining);
+	int bytesRead = 0, cnt = 0;
+
+	while (bytesRead < wanted) {
+	    if ((cnt = in.read(buffer, bytesRead, wanted - bytesRead)) <= 0) {
+		remaining = 0;
+		break;
+	    }
+	    bytesRead += cnt;
+	}
+	remaining -= bytesRead;
+
+	// don't hand OpenAL a partial sample frame
+	bytesRead -= bytesRead % frameSize;
+
+	// WAV samples are little-endian
+	if (SWAP && bitsPerSample == 16)
+	    OggDecoder.swapBytes(buffer, 0, bytesRead);
+
+	return bytesRead;
+    }
+
+    public void close() {
+	if (in == null)
+	    return;
+	try {
+	    in.close();
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+	in = null;
+	remaining = 0;
+    }
+
+    public void dump() {
+	System.err.println("#Channels: " + numChannels);
+	System.err.println("Sample rate: " + sampleRate);
+	System.err.println("Bits per sample: " + bitsPerSample);
+    }
+}
@@ -5,8 +5,11 @@ import net.java.games.joal.ALC;
 import net.java.games.joal.ALCcontext;
 import net.java.games.joal.ALCdevice;
 import net.java.games.joal.ALFactory;
-import net.java.games.joal.util.WAVData;
-import net.java.games.joal.util.WAVLoader;
+
+import demos.common.AudioScheduler;
+import demos.common.DSPChain;
+import demos.common.SoundData;
+import demos.common.SourceMonitor;
 
 /**
  * OpenAL 1.1 EFX test class, a translation of the C++ EFXFilter demo from the
@@ -20,6 +23,8 @@ public class EFXFilter {
     private static ALCcontext context;
     private static ALC alc;
     private static AL al;
+    private static SourceMonitor monitor;
+    private static EFXManager efx;
 
     private static String wavefile = "demos/data/Footsteps.wav";
 
@@ -38,10 +43,10 @@ public class EFXFilter {
             if (alc.alcIsExtensionPresent(device, "ALC_EXT_EFX")) {
 
                 // Load the sound sample to a buffer
-                WAVData wavedata = WAVLoader.loadFromStream(EFXFilter.class.getClassLoader().getResourceAsStream(wavefile));
+                SoundData wavedata = SoundData.load(wavefile);
                 int[] buffers = new int[1];
                 al.alGenBuffers(1, buffers, 0);
-                al.alBufferData(buffers[0], wavedata.format, wavedata.data, wavedata.size, wavedata.freq);
+                wavedata.upload(al, buffers[0]);
                 int buffer = buffers[0];
 
                 // Attach buffer to a source
@@ -50,19 +55,30 @@ public class EFXFilter {
                 al.alSourcei(sources[0], AL.AL_BUFFER, buffer);
                 int source = sources[0];
 
+                // Configure the filter and effect once; each play only
+                // rebinds them
+                efx = new EFXManager(al, 4);
+                efx.defineLowpass("lowpass 0.5", 1f, 0.5f);
+                efx.defineReverb("reverb", ReverbPreset.GENERIC);
+
                 // Play the sound through a variety of EFX filters & effects
                 playDry(source);
                 playDirectFilter(source);
                 playAuxiliaryNoFilter(source);
                 playAuxiliaryFilter(source);
+                playZones(source);
 
-                // Cleanup buffer & source
+                // Cleanup buffer, source, filter & effect
+                efx.clear(source);
+                efx.release();
+                efx = null;
                 al.alSourcei(source, AL.AL_BUFFER, 0);
                 al.alDeleteSources(1, new int[]{ source }, 0);
                 al.alDeleteBuffers(1, new int[]{ buffer }, 0);
             }
             else {
-                System.out.println("EFX not supported.");
+                System.out.println("EFX not supported, filtering in Java instead.");
+                playFallback();
             }
 
             shutdownOpenAL();
@@ -86,6 +102,8 @@ public class EFXFilter {
         alc.alcMakeContextCurrent(context);
 
         al = ALFactory.getAL();
+
+        monitor = new SourceMonitor(al);
     }
 
     /**
@@ -93,6 +111,8 @@ public class EFXFilter {
      */
     private static void shutdownOpenAL() {
 
+        monitor = null;
+
         alc.alcMakeContextCurrent(null);
         alc.alcDestroyContext(context);
         alc.alcCloseDevice(device);
@@ -101,6 +121,48 @@ public class EFXFilter {
         al = null;
     }
 
+    /**
+     * Plays the sound through the Java equivalents of the filters and
+     * effects, baked into the buffer before each play.
+     */
+    private static void playFallback() {
+
+        SoundData wavedata = SoundData.load(wavefile);
+        int[] buffers = new int[1];
+        al.alGenBuffers(1, buffers, 0);
+        int[] sources = new int[1];
+        al.alGenSources(1, sources, 0);
+
+        String[] descriptions = {
+            "Source played dry",
+            "Source played through a Java lowpass filter",
+            "Source played through a Java reverb",
+            "Source played through a Java lowpass filter and reverb"
+        };
+        DSPChain[] chains = {
+            null,
+            DSPChain.lowpass(1f, 0.5f),
+            new DSPChain().add(ReverbPreset.GENERIC.createReverb()),
+            DSPChain.lowpass(1f, 0.5f).add(ReverbPreset.GENERIC.createReverb())
+        };
+
+        for (int i = 0; i < chains.length; i++) {
+            System.out.println(descriptions[i]);
+            SoundData processed = (chains[i] == null) ? wavedata : chains[i].process(wavedata);
+            processed.upload(al, buffers[0]);
+            al.alSourcei(sources[0], AL.AL_BUFFER, buffers[0]);
+            play(sources[0]);
+            al.alSourcei(sources[0], AL.AL_BUFFER, 0);
+            if (processed != wavedata) {
+                processed.recycle();
+            }
+        }
+
+        al.alDeleteSources(1, sources, 0);
+        al.alDeleteBuffers(1, buffers, 0);
+        wavedata.recycle();
+    }
+
     /**
      * Plays the source without any filters.
      * 
@@ -122,14 +184,12 @@ public class EFXFilter {
         System.out.println("Source played through a direct lowpass filter");
 
         // Attach a lowpass filter to the source
-        int filter = createFilter(AL.AL_FILTER_LOWPASS, 1f, 0.5f);
-        al.alSourcei(source, AL.AL_DIRECT_FILTER, filter);
+        efx.setDirectFilter(source, "lowpass 0.5");
 
         play(source);
 
         // Cleanup
-        al.alSourcei(source, AL.AL_DIRECT_FILTER, AL.AL_FILTER_NULL);
-        deleteFilter(filter);
+        efx.setDirectFilter(source, null);
     }
 
     /**
@@ -141,25 +201,13 @@ public class EFXFilter {
 
         System.out.println("Source played through an auxiliary reverb without filtering");
 
-        // Create auxiliary effect slots & effects
-        int[] effectslots = new int[1];
-        al.alGenAuxiliaryEffectSlots(1, effectslots, 0);
-        int[] effects = new int[1];
-        al.alGenEffects(1, effects, 0);
-
-        // Configure the effect to be a reverb, load it to the effect slot
-        al.alEffecti(effects[0], AL.AL_EFFECT_TYPE, AL.AL_EFFECT_REVERB);
-        al.alAuxiliaryEffectSloti(effectslots[0], AL.AL_EFFECTSLOT_EFFECT, effects[0]);
-
-        // Enable Send 0 from the Source to the Auxiliary Effect Slot without filtering
-        al.alSource3i(source, AL.AL_AUXILIARY_SEND_FILTER, effectslots[0], 0, AL.AL_FILTER_NULL);
+        // Enable Send 0 from the Source to the slot holding the reverb without filtering
+        efx.setSend(source, 0, "reverb", null);
 
         play(source);
 
         // Cleanup
-        al.alSource3i(source, AL.AL_AUXILIARY_SEND_FILTER, AL.AL_EFFECTSLOT_NULL, 0, AL.AL_FILTER_NULL);
-        al.alDeleteAuxiliaryEffectSlots(1, effectslots, 0);
-        al.alDeleteEffects(1, effects, 0);
+        efx.setSend(source, 0, null, null);
     }
 
     /**
@@ -171,82 +219,79 @@ public class EFXFilter {
 
         System.out.println("Source played through an auxiliary reverb with lowpass filter");
 
-        // Create a lowpass filter, attach it to a reverb effect
-        int filter = createFilter(AL.AL_FILTER_LOWPASS, 1f, 0.5f);
-
-        int[] effectslots = new int[1];
-        al.alGenAuxiliaryEffectSlots(1, effectslots, 0);
-        int[] effects = new int[1];
-        al.alGenEffects(1, effects, 0);
-        al.alEffecti(effects[0], AL.AL_EFFECT_TYPE, AL.AL_EFFECT_REVERB);
-        al.alAuxiliaryEffectSloti(effectslots[0], AL.AL_EFFECTSLOT_EFFECT, effects[0]);
-
-        // Enable Send 0 from the Source to the Auxiliary Effect Slot with filtering
-        al.alSource3i(source, AL.AL_AUXILIARY_SEND_FILTER, effectslots[0], 0, filter);
+        // Enable Send 0 from the Source to the slot holding the reverb with filtering
+        efx.setSend(source, 0, "reverb", "lowpass 0.5");
 
         play(source);
 
         // Cleanup
-        al.alSource3i(source, AL.AL_AUXILIARY_SEND_FILTER, AL.AL_EFFECTSLOT_NULL, 0, AL.AL_FILTER_NULL);
-        al.alDeleteAuxiliaryEffectSlots(1, effectslots, 0);
-        al.alDeleteEffects(1, effects, 0);
+        efx.setSend(source, 0, null, null);
     }
 
     /**
-     * Plays the source, returning once the source has been completed.
-     * 
+     * Loops the source through an auxiliary reverb while the listener walks
+     * through a hallway, a concert hall and a cave.
+     *
      * @param source Source ID.
      */
-    private static void play(int source) {
+    private static void playZones(int source) {
 
+        System.out.println("Source played while the listener walks through reverb zones");
+
+        final float[] listenerPos = { -12f, 0f, 0f };
+        final ReverbZones zones = new ReverbZones(al, efx, "zones", ReverbPreset.GENERIC);
+        zones.addZone("hallway",      new float[]{ -8f, -5f, -5f }, new float[]{ -2f, 5f, 5f }, ReverbPreset.HALLWAY);
+        zones.addZone("concert hall", new float[]{ -2f, -5f, -5f }, new float[]{  6f, 5f, 5f }, ReverbPreset.CONCERT_HALL);
+        zones.addZone("cave",         new float[]{  6f, -5f, -5f }, new float[]{ 10f, 5f, 5f }, ReverbPreset.CAVE);
+        zones.setListener(listenerPos);
+
+        // The source stays with the listener; only the room changes
+        al.alSourcei(source, AL.AL_SOURCE_RELATIVE, AL.AL_TRUE);
+        al.alSourcei(source, AL.AL_LOOPING, AL.AL_TRUE);
+        efx.setSend(source, 0, "zones", null);
         al.alSourcePlay(source);
 
-        while (true) {
-            int[] state = new int[1];
-            al.alGetSourcei(source, AL.AL_SOURCE_STATE, state, 0);
+        // Walk 24 units in 8 seconds
+        final AudioScheduler scheduler = new AudioScheduler(50f);
+        scheduler.add(new AudioScheduler.Task() {
+            private String zone = null;
+
+            public void tick(long tick, float seconds) {
 
-            if (state[0] == AL.AL_PLAYING) {
-                try {
-                    Thread.sleep(50);
+                if (tick >= 400) {
+                    scheduler.stop();
+                    return;
                 }
-                catch (InterruptedException iex) {
-                    throw new RuntimeException(iex.getMessage(), iex);
+                listenerPos[0] += 3f * seconds;
+                al.alListenerfv(AL.AL_POSITION, listenerPos, 0);
+                if (zones.getZone() != zone) {
+                    zone = zones.getZone();
+                    System.out.println("  entering " + ((zone == null) ? "the open" : zone));
                 }
             }
-            else {
-                break;
-            }
-        }
-    }
+        });
+        scheduler.add(zones);
+        scheduler.run();
 
-    /**
-     * Creates a new OpenAL EFX filter per the given specs.
-     * 
-     * @param filtertype Type of filter to create.  One of {@link AL#AL_FILTER_LOWPASS},
-     * 					 or {@link AL#AL_FILTER_HIGHPASS}.
-     * @param gain		 Filter gain.
-     * @param gainlimit	 Filter frequency (upper/lower) limit.
-     * @return Filter ID.
-     */
-    private static int createFilter(int filtertype, float gain, float gainlimit) {
-
-        int filters[] = new int[1];
-        al.alGenFilters(1, filters, 0);
+        System.out.println("  " + zones.getTransitions() + " transitions, " + zones.getUpdates()
+                           + " parameter updates in " + zones.getCommits() + " slot reloads");
 
-        al.alFilteri(filters[0], AL.AL_FILTER_TYPE, filtertype);
-        al.alFilterf(filters[0], filtertype, gain);
-        al.alFilterf(filters[0], filtertype, gainlimit);
-
-        return filters[0];
+        // Cleanup
+        al.alSourceStop(source);
+        al.alSourcei(source, AL.AL_LOOPING, AL.AL_FALSE);
+        al.alSourcei(source, AL.AL_SOURCE_RELATIVE, AL.AL_FALSE);
+        efx.setSend(source, 0, null, null);
+        al.alListenerfv(AL.AL_POSITION, new float[]{ 0f, 0f, 0f }, 0);
     }
 
     /**
-     * Deletes the given OpenAL EFX filter.
+     * Plays the source, returning once the source has been completed.
      * 
-     * @param filter Filter ID.
+     * @param source Source ID.
      */
-    private static void deleteFilter(int filter) {
+    private static void play(int source) {
 
-        al.alDeleteFilters(1, new int[]{ filter }, 0);
+        al.alSourcePlay(source);
+        monitor.waitFor(source, 20f);
     }
 }
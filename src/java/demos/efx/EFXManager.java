@@ -0,0 +1,456 @@
+package demos.efx;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import net.java.games.joal.AL;
+import net.java.games.joal.ALException;
+
+import demos.common.IntIntMap;
+
+/**
+ * Keeps configured EFX filters and effects as named presets, and shares a
+ * small fixed set of auxiliary effect slots among all sources.
+ * <p>
+ * A preset is generated and configured once, when it's defined; applying it
+ * to a source afterwards is a single <code>alSourcei</code> for a direct
+ * filter or <code>alSource3i</code> for an auxiliary send.  Auxiliary slots
+ * are scarce (many drivers provide four) and costly, so they're all
+ * generated up front.  An effect is loaded into a slot the first time a
+ * source sends to it and stays there while other effects can use the
+ * remaining slots; only when every slot holds another effect is the least
+ * recently used one without sources reloaded.  Removed presets return their
+ * filter or effect to a free list for the next definition.
+ * <p>
+ * All methods must be called on the thread that has the OpenAL context
+ * current.
+ */
+public class EFXManager {
+
+    /** Sends per source that are tracked; EFX allows at most four. */
+    public static final int MAX_SENDS = 4;
+
+    private final AL al;
+
+    private static class Preset {
+
+        final boolean effect;
+        final int id;
+        // Index of the slot the effect is loaded in, or -1
+        int slot = -1;
+
+        Preset(boolean effect, int id) {
+
+            this.effect = effect;
+            this.id = id;
+        }
+    }
+
+    private final Map<String, Preset> presets = new HashMap<String, Preset>();
+
+    // The auxiliary slots, with what's loaded in them and how many sends
+    // use them
+    private final int[] slots;
+    private final Preset[] loaded;
+    private final int[] users;
+    private final long[] lastUsed;
+    private long clock = 0;
+    private int loads = 0;
+
+    // Slot index per source send, keyed by source * MAX_SENDS + send
+    private final IntIntMap sends = new IntIntMap(16, -1);
+
+    // Filters and effects of removed presets
+    private int freeFilterCount = 0;
+    private int[] freeFilters = new int[4];
+    private int freeEffectCount = 0;
+    private int[] freeEffects = new int[4];
+
+    /**
+     * Generates up to <code>slotCount</code> auxiliary effect slots; the
+     * driver may provide fewer.
+     *
+     * @param al        AL instance.
+     * @param slotCount Number of slots wanted.
+     */
+    public EFXManager(AL al, int slotCount) {
+
+        this.al = al;
+
+        int[] generated = new int[slotCount];
+        int count = 0;
+        al.alGetError();
+        while (count < slotCount) {
+            al.alGenAuxiliaryEffectSlots(1, generated, count);
+            if (al.alGetError() != AL.AL_NO_ERROR) {
+                break;
+            }
+            count++;
+        }
+        if (count == 0) {
+            throw new ALException("No auxiliary effect slots available");
+        }
+        slots = new int[count];
+        System.arraycopy(generated, 0, slots, 0, count);
+        loaded = new Preset[count];
+        users = new int[count];
+        lastUsed = new long[count];
+    }
+
+    /**
+     * Defines or redefines a lowpass filter preset.
+     *
+     * @return Filter ID.
+     */
+    public int defineLowpass(String name, float gain, float gainHF) {
+
+        int filter = define(name, false).id;
+        al.alFilteri(filter, AL.AL_FILTER_TYPE, AL.AL_FILTER_LOWPASS);
+        al.alFilterf(filter, AL.AL_LOWPASS_GAIN, gain);
+        al.alFilterf(filter, AL.AL_LOWPASS_GAINHF, gainHF);
+        return filter;
+    }
+
+    /**
+     * Defines or redefines a highpass filter preset.
+     *
+     * @return Filter ID.
+     */
+    public int defineHighpass(String name, float gain, float gainLF) {
+
+        int filter = define(name, false).id;
+        al.alFilteri(filter, AL.AL_FILTER_TYPE, AL.AL_FILTER_HIGHPASS);
+        al.alFilterf(filter, AL.AL_HIGHPASS_GAIN, gain);
+        al.alFilterf(filter, AL.AL_HIGHPASS_GAINLF, gainLF);
+        return filter;
+    }
+
+    /**
+     * Defines or redefines a reverb preset.  If the preset is loaded in a
+     * slot, the slot is reloaded so its sources hear the change.
+     *
+     * @return Effect ID.
+     */
+    public int defineReverb(String name, ReverbPreset reverb) {
+
+        Preset preset = define(name, true);
+        reverb.apply(al, preset.id);
+        if (preset.slot >= 0) {
+            load(preset.slot, preset);
+        }
+        return preset.id;
+    }
+
+    /**
+     * Reloads an effect preset into its slot after its parameters were set
+     * directly on {@link #getId its effect}, which slots only pick up when
+     * the effect is loaded again.  Does nothing if the effect isn't in a
+     * slot; it's loaded with the new parameters when it's next used.
+     */
+    public void reload(String effect) {
+
+        Preset preset = lookup(effect, Boolean.TRUE);
+        if (preset.slot >= 0) {
+            load(preset.slot, preset);
+        }
+    }
+
+    /**
+     * @return Whether a preset of the name is defined.
+     */
+    public boolean isDefined(String name) {
+
+        return presets.containsKey(name);
+    }
+
+    /**
+     * @return The ID of the preset's filter or effect.
+     * @throws IllegalArgumentException if there's no such preset.
+     */
+    public int getId(String name) {
+
+        return lookup(name, null).id;
+    }
+
+    /**
+     * Removes a preset, keeping its filter or effect for the next one.
+     * Sources should no longer use it: filters still attached go on
+     * working, but sends to an effect are disconnected.
+     */
+    public void remove(String name) {
+
+        Preset preset = presets.remove(name);
+        if (preset == null) {
+            return;
+        }
+        if (preset.effect) {
+            if (preset.slot >= 0) {
+                disconnect(preset.slot);
+                unload(preset.slot);
+            }
+            al.alEffecti(preset.id, AL.AL_EFFECT_TYPE, AL.AL_EFFECT_NULL);
+            freeEffects = push(freeEffects, freeEffectCount++, preset.id);
+        }
+        else {
+            al.alFilteri(preset.id, AL.AL_FILTER_TYPE, AL.AL_FILTER_NULL);
+            freeFilters = push(freeFilters, freeFilterCount++, preset.id);
+        }
+    }
+
+    /**
+     * Sets a source's direct filter.
+     *
+     * @param source Source ID.
+     * @param filter Name of a filter preset, or null for none.
+     */
+    public void setDirectFilter(int source, String filter) {
+
+        al.alSourcei(source, AL.AL_DIRECT_FILTER, filterId(filter));
+    }
+
+    /**
+     * Routes one of a source's auxiliary sends to an effect preset,
+     * loading the effect into a slot if it isn't in one.
+     *
+     * @param source Source ID.
+     * @param send   Send index, below {@link #MAX_SENDS}.
+     * @param effect Name of an effect preset, or null to disconnect the
+     *               send.
+     * @param filter Name of a filter preset for the send, or null for none.
+     * @return False if every slot is used by other effects, in which case
+     *         the send is disconnected.
+     */
+    public boolean setSend(int source, int send, String effect, String filter) {
+
+        if (send < 0 || send >= MAX_SENDS) {
+            throw new IllegalArgumentException("Send " + send + " out of range");
+        }
+        int key = source * MAX_SENDS + send;
+        int previous = sends.remove(key);
+        if (previous >= 0) {
+            users[previous]--;
+        }
+
+        int slot = (effect == null) ? -1 : acquire(lookup(effect, Boolean.TRUE));
+        int filterId = filterId(filter);
+        if (slot < 0) {
+            al.alSource3i(source, AL.AL_AUXILIARY_SEND_FILTER, AL.AL_EFFECTSLOT_NULL, send, filterId);
+            return effect == null;
+        }
+        sends.put(key, slot);
+        al.alSource3i(source, AL.AL_AUXILIARY_SEND_FILTER, slots[slot], send, filterId);
+        return true;
+    }
+
+    /**
+     * Removes the direct filter and disconnects every send of a source.
+     */
+    public void clear(int source) {
+
+        al.alSourcei(source, AL.AL_DIRECT_FILTER, AL.AL_FILTER_NULL);
+        for (int send = 0; send < MAX_SENDS; send++) {
+            int slot = sends.remove(source * MAX_SENDS + send);
+            if (slot >= 0) {
+                users[slot]--;
+                al.alSource3i(source, AL.AL_AUXILIARY_SEND_FILTER, AL.AL_EFFECTSLOT_NULL, send, AL.AL_FILTER_NULL);
+            }
+        }
+    }
+
+    /**
+     * @return The slot the effect preset is loaded in, or
+     *         <code>AL_EFFECTSLOT_NULL</code>.
+     */
+    public int getSlot(String effect) {
+
+        Preset preset = lookup(effect, Boolean.TRUE);
+        return (preset.slot < 0) ? AL.AL_EFFECTSLOT_NULL : slots[preset.slot];
+    }
+
+    /**
+     * @return The number of auxiliary slots the driver provided.
+     */
+    public int getSlotCount() {
+
+        return slots.length;
+    }
+
+    /**
+     * @return The number of times an effect has been loaded into a slot.
+     */
+    public int getLoads() {
+
+        return loads;
+    }
+
+    /**
+     * Deletes the slots and every filter and effect, defined or free.
+     * Sources should no longer use any of them.
+     */
+    public void release() {
+
+        al.alDeleteAuxiliaryEffectSlots(slots.length, slots, 0);
+        for (Iterator<Preset> i = presets.values().iterator(); i.hasNext(); ) {
+            Preset preset = i.next();
+            if (preset.effect) {
+                freeEffects = push(freeEffects, freeEffectCount++, preset.id);
+            }
+            else {
+                freeFilters = push(freeFilters, freeFilterCount++, preset.id);
+            }
+        }
+        presets.clear();
+        al.alDeleteFilters(freeFilterCount, freeFilters, 0);
+        al.alDeleteEffects(freeEffectCount, freeEffects, 0);
+        freeFilterCount = 0;
+        freeEffectCount = 0;
+        sends.clear();
+        Arrays.fill(loaded, null);
+        Arrays.fill(users, 0);
+        Arrays.fill(lastUsed, 0);
+    }
+
+    /**
+     * Finds or creates the preset of a name, taking a free filter or effect
+     * or generating one.
+     */
+    private Preset define(String name, boolean effect) {
+
+        Preset preset = presets.get(name);
+        if (preset != null) {
+            if (preset.effect != effect) {
+                throw new IllegalArgumentException(name + " is already defined as " + (effect ? "a filter" : "an effect"));
+            }
+            return preset;
+        }
+
+        int id;
+        if (effect && freeEffectCount > 0) {
+            id = freeEffects[--freeEffectCount];
+        }
+        else if (!effect && freeFilterCount > 0) {
+            id = freeFilters[--freeFilterCount];
+        }
+        else {
+            int[] ids = new int[1];
+            al.alGetError();
+            if (effect) {
+                al.alGenEffects(1, ids, 0);
+            }
+            else {
+                al.alGenFilters(1, ids, 0);
+            }
+            if (al.alGetError() != AL.AL_NO_ERROR) {
+                throw new ALException("Error generating " + (effect ? "an effect" : "a filter") + " for " + name);
+            }
+            id = ids[0];
+        }
+        preset = new Preset(effect, id);
+        presets.put(name, preset);
+        return preset;
+    }
+
+    /**
+     * @param effect TRUE for effect presets, FALSE for filters, null for
+     *               either.
+     */
+    private Preset lookup(String name, Boolean effect) {
+
+        Preset preset = presets.get(name);
+        if (preset == null || (effect != null && preset.effect != effect.booleanValue())) {
+            throw new IllegalArgumentException("No " + ((effect == null) ? "" : effect.booleanValue() ? "effect " : "filter ") + "preset " + name);
+        }
+        return preset;
+    }
+
+    private int filterId(String filter) {
+
+        return (filter == null) ? AL.AL_FILTER_NULL : lookup(filter, Boolean.FALSE).id;
+    }
+
+    /**
+     * Finds the slot the effect is loaded in, or loads it into an empty
+     * slot or the least recently used one without sources, and counts a
+     * user.
+     *
+     * @return The slot index, or -1 if every slot is in use.
+     */
+    private int acquire(Preset preset) {
+
+        int slot = preset.slot;
+        if (slot < 0) {
+            for (int i = 0; i < slots.length; i++) {
+                if (users[i] != 0) {
+                    continue;
+                }
+                if (loaded[i] == null) {
+                    slot = i;
+                    break;
+                }
+                if (slot < 0 || lastUsed[i] < lastUsed[slot]) {
+                    slot = i;
+                }
+            }
+            if (slot < 0) {
+                return -1;
+            }
+            if (loaded[slot] != null) {
+                loaded[slot].slot = -1;
+            }
+            load(slot, preset);
+        }
+        users[slot]++;
+        lastUsed[slot] = ++clock;
+        return slot;
+    }
+
+    private void load(int slot, Preset preset) {
+
+        al.alAuxiliaryEffectSloti(slots[slot], AL.AL_EFFECTSLOT_EFFECT, preset.id);
+        loaded[slot] = preset;
+        preset.slot = slot;
+        loads++;
+    }
+
+    /**
+     * Disconnects every send to a slot, so nothing hears the next effect
+     * loaded into it.
+     */
+    private void disconnect(int slot) {
+
+        int[] keys = new int[sends.size()];
+        int count = sends.keys(keys);
+        for (int i = 0; i < count; i++) {
+            int key = keys[i];
+            if (sends.get(key) == slot) {
+                sends.remove(key);
+                al.alSource3i(key / MAX_SENDS, AL.AL_AUXILIARY_SEND_FILTER, AL.AL_EFFECTSLOT_NULL,
+                              key % MAX_SENDS, AL.AL_FILTER_NULL);
+            }
+        }
+        users[slot] = 0;
+    }
+
+    /**
+     * Empties a slot, silencing the sends that still use it.
+     */
+    private void unload(int slot) {
+
+        al.alAuxiliaryEffectSloti(slots[slot], AL.AL_EFFECTSLOT_EFFECT, AL.AL_EFFECT_NULL);
+        loaded[slot].slot = -1;
+        loaded[slot] = null;
+    }
+
+    private static int[] push(int[] stack, int count, int id) {
+
+        if (count == stack.length) {
+            int[] grown = new int[count * 2];
+            System.arraycopy(stack, 0, grown, 0, count);
+            stack = grown;
+        }
+        stack[count] = id;
+        return stack;
+    }
+}
@@ -0,0 +1,147 @@
+package demos.efx;
+
+import net.java.games.joal.AL;
+
+import demos.common.SimpleReverb;
+
+/**
+ * The parameters of a standard EFX reverb, with a few of the environments
+ * from the EFX presets in the OpenAL SDK.
+ */
+public class ReverbPreset {
+
+    public static final ReverbPreset GENERIC = new ReverbPreset(
+        1.0000f, 1.0000f, 0.3162f, 0.8913f, 1.49f, 0.83f, 0.0500f, 0.007f, 1.2589f, 0.011f, 0.9943f, 0.0f, true);
+    public static final ReverbPreset ROOM = new ReverbPreset(
+        0.4287f, 1.0000f, 0.3162f, 0.5929f, 0.40f, 0.83f, 0.1503f, 0.002f, 1.0629f, 0.003f, 0.9943f, 0.0f, true);
+    public static final ReverbPreset BATHROOM = new ReverbPreset(
+        0.1715f, 1.0000f, 0.3162f, 0.2512f, 1.49f, 0.54f, 0.6531f, 0.007f, 3.2734f, 0.011f, 0.9943f, 0.0f, true);
+    public static final ReverbPreset HALLWAY = new ReverbPreset(
+        0.3645f, 1.0000f, 0.3162f, 0.7079f, 1.49f, 0.59f, 0.2458f, 0.007f, 1.6615f, 0.011f, 0.9943f, 0.0f, true);
+    public static final ReverbPreset CONCERT_HALL = new ReverbPreset(
+        1.0000f, 1.0000f, 0.3162f, 0.5623f, 3.92f, 0.70f, 0.2427f, 0.020f, 0.9977f, 0.029f, 0.9943f, 0.0f, true);
+    public static final ReverbPreset CAVE = new ReverbPreset(
+        1.0000f, 1.0000f, 0.3162f, 1.0000f, 2.91f, 1.30f, 0.5000f, 0.015f, 0.7063f, 0.022f, 0.9943f, 0.0f, false);
+    public static final ReverbPreset ARENA = new ReverbPreset(
+        1.0000f, 1.0000f, 0.3162f, 0.4477f, 7.24f, 0.33f, 0.2612f, 0.020f, 1.0186f, 0.030f, 0.9943f, 0.0f, true);
+
+    /**
+     * The float parameters, in the order {@link #getValues} writes them.
+     */
+    public static final int[] PARAMETERS = {
+        AL.AL_REVERB_DENSITY,
+        AL.AL_REVERB_DIFFUSION,
+        AL.AL_REVERB_GAIN,
+        AL.AL_REVERB_GAINHF,
+        AL.AL_REVERB_DECAY_TIME,
+        AL.AL_REVERB_DECAY_HFRATIO,
+        AL.AL_REVERB_REFLECTIONS_GAIN,
+        AL.AL_REVERB_REFLECTIONS_DELAY,
+        AL.AL_REVERB_LATE_REVERB_GAIN,
+        AL.AL_REVERB_LATE_REVERB_DELAY,
+        AL.AL_REVERB_AIR_ABSORPTION_GAINHF,
+        AL.AL_REVERB_ROOM_ROLLOFF_FACTOR
+    };
+
+    public final float density;
+    public final float diffusion;
+    public final float gain;
+    public final float gainHF;
+    public final float decayTime;
+    public final float decayHFRatio;
+    public final float reflectionsGain;
+    public final float reflectionsDelay;
+    public final float lateReverbGain;
+    public final float lateReverbDelay;
+    public final float airAbsorptionGainHF;
+    public final float roomRolloffFactor;
+    public final boolean decayHFLimit;
+
+    public ReverbPreset(float density, float diffusion, float gain, float gainHF,
+                        float decayTime, float decayHFRatio,
+                        float reflectionsGain, float reflectionsDelay,
+                        float lateReverbGain, float lateReverbDelay,
+                        float airAbsorptionGainHF, float roomRolloffFactor, boolean decayHFLimit) {
+
+        this.density = density;
+        this.diffusion = diffusion;
+        this.gain = gain;
+        this.gainHF = gainHF;
+        this.decayTime = decayTime;
+        this.decayHFRatio = decayHFRatio;
+        this.reflectionsGain = reflectionsGain;
+        this.reflectionsDelay = reflectionsDelay;
+        this.lateReverbGain = lateReverbGain;
+        this.lateReverbDelay = lateReverbDelay;
+        this.airAbsorptionGainHF = airAbsorptionGainHF;
+        this.roomRolloffFactor = roomRolloffFactor;
+        this.decayHFLimit = decayHFLimit;
+    }
+
+    /**
+     * Writes the float parameters in the order of {@link #PARAMETERS}.
+     *
+     * @param values Array of at least <code>PARAMETERS.length</code>.
+     */
+    public void getValues(float[] values) {
+
+        values[0] = density;
+        values[1] = diffusion;
+        values[2] = gain;
+        values[3] = gainHF;
+        values[4] = decayTime;
+        values[5] = decayHFRatio;
+        values[6] = reflectionsGain;
+        values[7] = reflectionsDelay;
+        values[8] = lateReverbGain;
+        values[9] = lateReverbDelay;
+        values[10] = airAbsorptionGainHF;
+        values[11] = roomRolloffFactor;
+    }
+
+    /**
+     * Makes the effect a reverb with these parameters.
+     *
+     * @param al     AL instance.
+     * @param effect Effect ID.
+     */
+    public void apply(AL al, int effect) {
+
+        al.alEffecti(effect, AL.AL_EFFECT_TYPE, AL.AL_EFFECT_REVERB);
+        al.alEffectf(effect, AL.AL_REVERB_DENSITY, density);
+        al.alEffectf(effect, AL.AL_REVERB_DIFFUSION, diffusion);
+        al.alEffectf(effect, AL.AL_REVERB_GAIN, gain);
+        al.alEffectf(effect, AL.AL_REVERB_GAINHF, gainHF);
+        al.alEffectf(effect, AL.AL_REVERB_DECAY_TIME, decayTime);
+        al.alEffectf(effect, AL.AL_REVERB_DECAY_HFRATIO, decayHFRatio);
+        al.alEffectf(effect, AL.AL_REVERB_REFLECTIONS_GAIN, reflectionsGain);
+        al.alEffectf(effect, AL.AL_REVERB_REFLECTIONS_DELAY, reflectionsDelay);
+        al.alEffectf(effect, AL.AL_REVERB_LATE_REVERB_GAIN, lateReverbGain);
+        al.alEffectf(effect, AL.AL_REVERB_LATE_REVERB_DELAY, lateReverbDelay);
+        al.alEffectf(effect, AL.AL_REVERB_AIR_ABSORPTION_GAINHF, airAbsorptionGainHF);
+        al.alEffectf(effect, AL.AL_REVERB_ROOM_ROLLOFF_FACTOR, roomRolloffFactor);
+        al.alEffecti(effect, AL.AL_REVERB_DECAY_HFLIMIT, decayHFLimit ? AL.AL_TRUE : AL.AL_FALSE);
+    }
+
+    /**
+     * Sets a Java reverb stage up to approximate these parameters, for
+     * devices without EFX.
+     *
+     * @param reverb The stage.
+     */
+    public void apply(SimpleReverb reverb) {
+
+        reverb.setParameters(decayTime, gainHF, decayHFRatio, gain * lateReverbGain,
+                             reflectionsDelay + lateReverbDelay);
+    }
+
+    /**
+     * @return A new Java reverb stage set up as by {@link #apply(SimpleReverb)}.
+     */
+    public SimpleReverb createReverb() {
+
+        SimpleReverb reverb = new SimpleReverb();
+        apply(reverb);
+        return reverb;
+    }
+}
@@ -0,0 +1,234 @@
+package demos.efx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.java.games.joal.AL;
+
+import demos.common.AudioScheduler;
+
+/**
+ * Changes a reverb preset as the listener moves between environment zones,
+ * axis-aligned boxes that each have a {@link ReverbPreset}.  Where zones
+ * overlap, the one added last wins, so rooms can be added after the
+ * building they're in; outside every zone the listener hears the outside
+ * preset.
+ * <p>
+ * Run as a scheduler task, the zones cost nothing while the listener stays
+ * in one: parameters are only sent after a transition, while they ramp
+ * from the values heard at that moment to the new zone's over the
+ * {@link #setRampTime ramp time}.  On each tick of a ramp only the
+ * parameters that moved by more than an {@link #setEpsilon epsilon} since
+ * they were last sent go to the effect, and the effect is then reloaded
+ * into its slot once, which is what makes the whole set audible together.
+ * <p>
+ * The effect is an {@link EFXManager} preset that sources send to as
+ * usual.  Ticks must run on the thread that has the OpenAL context
+ * current.
+ */
+public class ReverbZones implements AudioScheduler.Task {
+
+    private static final int COUNT = ReverbPreset.PARAMETERS.length;
+
+    private final AL al;
+    private final EFXManager efx;
+    private final String effect;
+
+    private static class Zone {
+
+        final String name;
+        final float[] min;
+        final float[] max;
+        final ReverbPreset preset;
+
+        Zone(String name, float[] min, float[] max, ReverbPreset preset) {
+
+            this.name = name;
+            this.min = min.clone();
+            this.max = max.clone();
+            this.preset = preset;
+        }
+
+        boolean contains(float[] p) {
+
+            return p[0] >= min[0] && p[0] <= max[0]
+                && p[1] >= min[1] && p[1] <= max[1]
+                && p[2] >= min[2] && p[2] <= max[2];
+        }
+    }
+
+    private final List<Zone> zones = new ArrayList<Zone>();
+    private final ReverbPreset outside;
+
+    private float[] listenerPos = { 0.0f, 0.0f, 0.0f };
+    private float rampTime = 0.5f;
+    private float epsilon = 0.001f;
+
+    // Zone the listener is in, -1 for outside
+    private int current = -1;
+
+    // The ramp: the values at the transition, the target values, the
+    // values last sent to the effect and how far along it is
+    private final float[] from = new float[COUNT];
+    private final float[] to = new float[COUNT];
+    private final float[] sent = new float[COUNT];
+    private boolean sentDecayHFLimit;
+    private boolean ramping = false;
+    private float elapsed = 0.0f;
+
+    private int transitions = 0;
+    private long updates = 0;
+    private long commits = 0;
+
+    /**
+     * Defines the effect preset with the outside environment.
+     *
+     * @param al      AL instance.
+     * @param efx     Manager that holds the effect.
+     * @param effect  Name of the effect preset sources send to.
+     * @param outside Preset outside every zone.
+     */
+    public ReverbZones(AL al, EFXManager efx, String effect, ReverbPreset outside) {
+
+        this.al = al;
+        this.efx = efx;
+        this.effect = effect;
+        this.outside = outside;
+
+        efx.defineReverb(effect, outside);
+        outside.getValues(sent);
+        sentDecayHFLimit = outside.decayHFLimit;
+    }
+
+    /**
+     * Adds a zone.
+     *
+     * @param name   Name, for {@link #getZone}.
+     * @param min    Lowest corner.
+     * @param max    Highest corner.
+     * @param preset Reverb inside the zone.
+     */
+    public void addZone(String name, float[] min, float[] max, ReverbPreset preset) {
+
+        zones.add(new Zone(name, min, max, preset));
+    }
+
+    /**
+     * Sets the listener position; the array is read on every tick, so the
+     * caller can keep moving it.
+     */
+    public void setListener(float[] position) {
+
+        listenerPos = position;
+    }
+
+    /**
+     * Sets how long the transition between two zones takes, 0 to switch at
+     * once.
+     */
+    public void setRampTime(float seconds) {
+
+        rampTime = seconds;
+    }
+
+    /**
+     * Sets how far a parameter has to move during a ramp before it's sent
+     * again.  The end of a ramp always sends the exact target values.
+     */
+    public void setEpsilon(float epsilon) {
+
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * @return The name of the zone the listener is in, or null if outside.
+     */
+    public String getZone() {
+
+        return (current < 0) ? null : zones.get(current).name;
+    }
+
+    /**
+     * @return The number of times the listener changed zones.
+     */
+    public int getTransitions() {
+
+        return transitions;
+    }
+
+    /**
+     * @return The number of parameters sent to the effect.
+     */
+    public long getUpdates() {
+
+        return updates;
+    }
+
+    /**
+     * @return The number of times the effect was reloaded into its slot.
+     */
+    public long getCommits() {
+
+        return commits;
+    }
+
+    /**
+     * Looks up the listener's zone and advances a running ramp.
+     */
+    public void tick(long tick, float seconds) {
+
+        int zone = find(listenerPos);
+        if (zone != current) {
+            current = zone;
+            ReverbPreset target = (zone < 0) ? outside : zones.get(zone).preset;
+            // Start from what's heard now, even in the middle of a ramp
+            System.arraycopy(sent, 0, from, 0, COUNT);
+            target.getValues(to);
+            elapsed = 0.0f;
+            ramping = true;
+            transitions++;
+        }
+        if (!ramping) {
+            return;
+        }
+
+        elapsed += seconds;
+        boolean done = elapsed >= rampTime;
+        float t = done ? 1.0f : elapsed / rampTime;
+        int effectId = efx.getId(effect);
+        int changed = 0;
+        for (int i = 0; i < COUNT; i++) {
+            float value = done ? to[i] : from[i] + (to[i] - from[i]) * t;
+            float delta = Math.abs(value - sent[i]);
+            if (delta > epsilon || (done && delta > 0.0f)) {
+                al.alEffectf(effectId, ReverbPreset.PARAMETERS[i], value);
+                sent[i] = value;
+                changed++;
+            }
+        }
+        if (done) {
+            boolean limit = ((current < 0) ? outside : zones.get(current).preset).decayHFLimit;
+            if (limit != sentDecayHFLimit) {
+                al.alEffecti(effectId, AL.AL_REVERB_DECAY_HFLIMIT, limit ? AL.AL_TRUE : AL.AL_FALSE);
+                sentDecayHFLimit = limit;
+                changed++;
+            }
+            ramping = false;
+        }
+        if (changed > 0) {
+            efx.reload(effect);
+            updates += changed;
+            commits++;
+        }
+    }
+
+    private int find(float[] position) {
+
+        for (int i = zones.size() - 1; i >= 0; i--) {
+            if (zones.get(i).contains(position)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}